@@ -0,0 +1,210 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Analyses every position of an EPD or FEN file, several at once, for test
+ * suites and for labelling positions.
+ * <p>
+ * Usage: {@code java chess.Batch <positions file> [depth N] [nodes N]
+ * [movetime ms] [workers N] [hash MB]}
+ * </p>
+ * Each line is a position in FEN, the move counters may be left out, or an
+ * EPD line, whose {@code id} is passed on. Blank lines and lines starting
+ * with '#' are skipped. The positions are shared out to a pool of workers,
+ * one a core by default, each with an {@link Engine2} of its own searching
+ * on one thread. A worker keeps its engine, with its transposition table and
+ * search tables, from one position to the next, rather than setting up a
+ * new one each time. Positions are searched to depth 6 unless told
+ * otherwise.
+ * <p>
+ * The results are written to the standard output as soon as they and all
+ * those before them are done, in the order of the file, one JSON object a
+ * line:
+ * </p>
+ * {@code {"id":"...","fen":"...","bestmove":"e2e4","score":{"cp":31},
+ * "pv":["e2e4","e7e5"],"depth":6,"seldepth":17,"nodes":123456,"time":850}}
+ * <p>
+ * The score is for the player to move, in centipawns or as {@code "mate"}
+ * in moves. A position with no legal move has a null best move and an empty
+ * line; one that cannot be read has only {@code "fen"}, the line as it is,
+ * and {@code "error"}.
+ * </p>
+ */
+public final class Batch
+{
+    private final long moveTime, nodes;
+    private final int depth, hash;
+    /** The engine of each worker, made the first time it is needed. */
+    private final ThreadLocal<Engine2> engines;
+
+    private Batch(long moveTime, long nodes, int depth, int hash)
+    {
+        this.moveTime = moveTime;
+        this.nodes = nodes;
+        this.depth = depth;
+        this.hash = hash;
+        engines = ThreadLocal.withInitial(() -> {
+            Engine2 engine = new Engine2();
+            engine.setHash(this.hash);
+            return engine;
+        });
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if(args.length < 1  ||  args.length % 2 == 0) {
+            System.err.println("usage: java chess.Batch <positions file> [depth N] [nodes N] [movetime ms] [workers N] [hash MB]");
+            return;
+        }
+        long moveTime = 0, nodes = 0;
+        int depth = 0, hash = 16;
+        int workers = Runtime.getRuntime().availableProcessors();
+        for(int i = 1; i < args.length; i += 2)
+        {
+            switch(args[i])
+            {
+                case "depth": depth = Integer.parseInt(args[i + 1]); break;
+                case "nodes": nodes = Long.parseLong(args[i + 1]); break;
+                case "movetime": moveTime = Long.parseLong(args[i + 1]); break;
+                case "workers": workers = Integer.parseInt(args[i + 1]); break;
+                case "hash": hash = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    return;
+            }
+        }
+        if(depth == 0  &&  nodes == 0  &&  moveTime == 0)
+            depth = 6;
+        new Batch(moveTime, nodes, depth, hash).run(Path.of(args[0]), Math.max(workers, 1));
+    }
+
+    /**
+     * Reads the file as the workers go, keeping only a few positions a worker
+     * queued, and writes the results in order.
+     */
+    private void run(Path file, int workers) throws IOException, InterruptedException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try(BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            String line;
+            while((line = in.readLine()) != null)
+            {
+                String epd = line.trim();
+                if(epd.isEmpty()  ||  epd.startsWith("#"))
+                    continue;
+                pending.add(pool.submit(() -> analyse(epd)));
+                if(pending.size() >= 4 * workers)
+                    write(out, pending.poll());
+            }
+            while(!pending.isEmpty())
+                write(out, pending.poll());
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void write(BufferedWriter out, Future<String> result) throws IOException, InterruptedException
+    {
+        try {
+            out.write(result.get());
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        out.newLine();
+        out.flush();
+    }
+
+    /** Searches one position on the worker's own engine. @return Its JSON line. */
+    private String analyse(String epd)
+    {
+        StringBuilder json = new StringBuilder("{");
+        String id = id(epd);
+        if(id != null)
+            json.append("\"id\":").append(quote(id)).append(',');
+
+        Position pos;
+        try {
+            pos = Position.fromFen(epd);
+        }
+        catch(IllegalArgumentException e) {
+            return json.append("\"fen\":").append(quote(epd)).append(",\"error\":").append(quote(String.valueOf(e.getMessage()))).append('}').toString();
+        }
+        json.append("\"fen\":").append(quote(pos.toFen()));
+        TimeManager timeManager = new TimeManager(moveTime, 0, 0, nodes, depth);
+        SearchResult result = engines.get().analyse(pos, timeManager);
+        long time = timeManager.elapsed();
+
+        if(result == null) {
+            //checkmate or stalemate.
+            json.append(",\"bestmove\":null,\"score\":").append(pos.CHECK ? "{\"mate\":0}" : "{\"cp\":0}")
+                .append(",\"pv\":[],\"depth\":0,\"seldepth\":0,\"nodes\":0");
+        }
+        else {
+            json.append(",\"bestmove\":").append(quote(result.move.toUci()))
+                .append(",\"score\":").append(score(result.score)).append(",\"pv\":[");
+            for(int i = 0; i < result.pv.size(); i++)
+                json.append(i > 0 ? "," : "").append(quote(result.pv.get(i).toUci()));
+            json.append("],\"depth\":").append(result.depth).append(",\"seldepth\":").append(result.selDepth)
+                .append(",\"nodes\":").append(result.nodes);
+        }
+        return json.append(",\"time\":").append(time).append('}').toString();
+    }
+
+    /** The value of an EPD {@code id} operation, or null if there is none. */
+    private static String id(String epd)
+    {
+        int start = epd.indexOf("id \"");
+        if(start < 0  ||  start > 0  &&  epd.charAt(start - 1) > ' '  &&  epd.charAt(start - 1) != ';')
+            return null;
+        start += 4;
+        int end = epd.indexOf('"', start);
+        return end < 0 ? null : epd.substring(start, end);
+    }
+
+    /** A score in Pawns, as centipawns or moves to mate, like {@link Uci}'s. */
+    private static String score(float score)
+    {
+        if(Math.abs(score) > Engine2.MATE_BOUND)
+        {
+            int plies = Math.round(Engine2.MATE - Math.abs(score));
+            int moves = (plies + 1) / 2;
+            return "{\"mate\":" + (score > 0 ? moves : -moves) + "}";
+        }
+        return "{\"cp\":" + Math.round(score * 100) + "}";
+    }
+
+    /** A JSON string. */
+    private static String quote(String text)
+    {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for(int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if(c == '"'  ||  c == '\\')
+                quoted.append('\\').append(c);
+            else if(c < ' ')
+                quoted.append(String.format("\\u%04x", (int) c));
+            else
+                quoted.append(c);
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,203 @@
+package chess;
+
+import pieces.Piece;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks {@link Engine2} on a fixed set of positions.
+ * <p>
+ * Usage: {@code java chess.Bench [milliseconds per position] [max threads]}
+ * or {@code java chess.Bench eval [network file]}
+ * or {@code java chess.Bench lazy [games]}
+ * </p>
+ * Searches every position for the same time with 1, 2, 4, ... threads up to
+ * the maximum (the number of cores by default), and prints the nodes per
+ * second and the speed-up over one thread for each: the Lazy SMP scaling
+ * curve. Then it prints how often the {@link EvalCache} had the score and
+ * how often lazy evaluation cut the evaluation short.
+ * <p>
+ * The {@code eval} form instead times the classic evaluation against a
+ * {@link Nnue} network, a random one if no file is given, in evaluations per
+ * second over positions from the same games. Each pass evaluates fresh
+ * copies of them; only the tables shared by all positions, of Pawn
+ * structures and material, stay warm, as they do in a search.
+ * </p>
+ * The {@code lazy} form measures how far the terms lazy evaluation leaves
+ * out move the score, over the positions of random games (200 by default),
+ * against the margin it allows for.
+ */
+public class Bench
+{
+    /** Openings and middlegames, in moves from the initial position. */
+    private static final String[][] GAMES =
+    {
+        {},
+        {"e4", "e5", "Nf3", "Nc6", "Bb5", "a6", "Ba4", "Nf6", "O-O", "Be7"},
+        {"d4", "Nf6", "c4", "e6", "Nc3", "Bb4", "e3", "O-O", "Bd3", "d5"},
+        {"e4", "c5", "Nf3", "d6", "d4", "cxd4", "Nxd4", "Nf6", "Nc3", "a6", "Be3", "e5"},
+        {"e4", "e6", "d4", "d5", "Nc3", "Nf6", "Bg5", "Be7", "e5", "Nfd7", "Bxe7", "Qxe7"},
+    };
+
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length > 0  &&  args[0].equals("eval")) {
+            evalBench(args.length > 1 ? Nnue.load(Path.of(args[1])) : Nnue.random(1, 256));
+            return;
+        }
+        if(args.length > 0  &&  args[0].equals("lazy")) {
+            lazyBench(args.length > 1 ? Integer.parseInt(args[1]) : 200);
+            return;
+        }
+        long moveTime = args.length > 0 ? Long.parseLong(args[0]) : 2000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1])
+                                         : Runtime.getRuntime().availableProcessors();
+
+        Position[] positions = new Position[GAMES.length];
+        for(int i = 0; i < GAMES.length; i++)
+            positions[i] = replay(GAMES[i]);
+
+        //let the JIT compiler get the one-thread figures up to speed too.
+        for(Position pos : positions)
+            new Engine2().analyse(pos, TimeManager.moveTime(moveTime));
+
+        EvalCache.resetCounters();
+        long lazyExits = Position.lazyExits();
+        System.out.println("threads\tnodes\t\tnps\t\tspeed-up");
+        double baseline = 0;
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            long nodes = 0, time = 0;
+            for(Position pos : positions) {
+                Engine2 engine = new Engine2();
+                engine.setThreads(threads);
+                long start = System.nanoTime();
+                engine.analyse(pos, TimeManager.moveTime(moveTime));
+                time += System.nanoTime() - start;
+                nodes += engine.nodes();
+            }
+            double nps = nodes * 1e9 / time;
+            if(threads == 1)
+                baseline = nps;
+            System.out.printf("%d\t%d\t%.0f\t\t%.2f%n", threads, nodes, nps, nps / baseline);
+        }
+        long probes = EvalCache.hits() + EvalCache.misses();
+        System.out.printf("eval cache: %d hits (%.1f%%), %d misses%n",
+                          EvalCache.hits(), 100.0 * EvalCache.hits() / Math.max(probes, 1),
+                          EvalCache.misses());
+        System.out.printf("lazy evaluation exits: %d%n", Position.lazyExits() - lazyExits);
+    }
+
+    private static void evalBench(Nnue network)
+    {
+        //the network's first layer is kept only in positions made after this.
+        Position.setEvaluator(network);
+        List<Position> positions = new ArrayList<>();
+        Random random = new Random(1);
+        for(String[] game : GAMES) {
+            Position pos = replay(game);
+            for(int ply = 0; ply < 60; ply++) {
+                List<Move> moves = new ArrayList<>();
+                for(Piece piece : pos.pieces)
+                    if(piece.colour == pos.turn)
+                        for(int[] square : piece.movableTo(pos))
+                            moves.add(new Move(piece, square));
+                if(moves.isEmpty())
+                    break;
+                pos = pos.move(moves.get(random.nextInt(moves.size())));
+                positions.add(pos);
+            }
+        }
+        Position.setEvaluator(Position.CLASSIC);
+
+        System.out.println("network kernels: " + Nnue.kernels());
+        System.out.println("evaluator\tevals/s");
+        String[] names = {"classic", "network"};
+        Evaluator[] evaluators = {Position.CLASSIC, network};
+        for(int i = 0; i < evaluators.length; i++) {
+            //warm up, then time. Every pass gets fresh copies, so that no
+            //attack maps or Pawn structure are left in them from the last.
+            float sink = 0;
+            int passes = 100;
+            long time = 0;
+            for(int pass = -20; pass < passes; pass++) {
+                List<Position> fresh = new ArrayList<>(positions.size());
+                for(Position pos : positions)
+                    fresh.add(pos.copy());
+                long start = System.nanoTime();
+                for(Position pos : fresh)
+                    sink += evaluators[i].evaluate(pos);
+                if(pass >= 0)
+                    time += System.nanoTime() - start;
+            }
+            System.out.printf("%s\t\t%.0f%s%n", names[i], (double) passes * positions.size() * 1e9 / time,
+                              Float.isNaN(sink) ? " (NaN)" : "");
+        }
+    }
+
+    /**
+     * Prints how far the full evaluation is from {@link Position#cheapEval},
+     * where that applies, over the positions of random games from the
+     * initial position: the share of them that lazy evaluation could get
+     * wrong, and the largest difference with its position.
+     */
+    private static void lazyBench(int games)
+    {
+        List<Float> swings = new ArrayList<>();
+        float largest = -1;
+        String worst = null;
+        Random random = new Random(5);
+        for(int game = 0; game < games; game++) {
+            Position pos = new Chess().position;
+            for(int ply = 0; ply < 200; ply++) {
+                List<Move> moves = new ArrayList<>();
+                for(Piece piece : pos.pieces)
+                    if(piece.colour == pos.turn)
+                        for(int[] square : piece.movableTo(pos))
+                            moves.add(new Move(piece, square));
+                if(moves.isEmpty())
+                    break;
+                pos = pos.move(moves.get(random.nextInt(moves.size())));
+                float cheap = pos.cheapEval();
+                if(Float.isNaN(cheap))
+                    continue;
+                float swing = Math.abs(pos.eval() - cheap);
+                swings.add(swing);
+                if(swing > largest) {
+                    largest = swing;
+                    worst = pos.toFen();
+                }
+            }
+        }
+        if(swings.isEmpty())
+            return;
+        swings.sort(null);
+        int n = swings.size(), over = 0;
+        for(float swing : swings)
+            if(swing > Position.LAZY_MARGIN)
+                over++;
+        System.out.printf("%d positions, margin %.2f Pawns%n", n, Position.LAZY_MARGIN);
+        System.out.printf("median %.2f, 99%% %.2f, 99.9%% %.2f, largest %.2f in %s%n",
+                          swings.get(n / 2), swings.get(n * 99 / 100), swings.get(n * 999 / 1000), largest, worst);
+        System.out.printf("over the margin: %d (%.3f%%)%n", over, 100.0 * over / n);
+    }
+
+    /**
+     * Plays the given moves, in algebraic notation, from the initial position.
+     */
+    static Position replay(String... moves)
+    {
+        Chess game = new Chess();
+        int colour = 1;
+        for(String input : moves) {
+            Move move = game.move(colour, game.prep(input));
+            if(move == null)
+                throw new IllegalArgumentException(input);
+            game.position = game.position.move(move);
+            colour *= -1;
+        }
+        return game.position;
+    }
+}
@@ -3,7 +3,10 @@ package chess;
 import pieces.*;
 import java.util.Scanner;
 import java.util.ArrayList;
-import javafx.util.Pair;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * The only class with documentation
@@ -12,16 +15,11 @@ import javafx.util.Pair;
  */
 public class Chess
 {
-    /** The current state of the chessboard. */
+    /** The current state of the chessboard. It also carries the history
+     * since the last capture or Pawn move, for Draw by Threefold Repetition
+     * and the Fifty Move Rule. */
     public Position position = null;
 
-    /** A list of all Positions that ever occurred to check for
-     * Draw by Threefold Repetition. */
-    public ArrayList<Pair<Position, Integer>> allPositions = new ArrayList<>();
-
-    /** Number of moves elapsed to check for the Fifty Move Rule. */
-    public int numOfMoves = 0;
-
 
     /**
      * Sets up the board and maintains a list of all pieces.
@@ -49,17 +47,48 @@ public class Chess
             }
         }
         position = new Position(pieces, 1, null);
-        allPositions.add(new Pair(position, 1));
-        numOfMoves = 0;
+    }
+
+    /**
+     * Commences play between two humans.
+     * @see #play(int)
+     */
+    public void play()
+    {
+        play(0);
     }
 
     /**
      * Commences play; inputs moves in algebraic notation until a result is 
      * reached. Prints the board after each move and the result at the end.
+     * <p>
+     * If the engine plays one side, it ponders on the human's time: after
+     * each of its moves, it goes on searching, on a thread of its own, the
+     * position after the reply it expects, the second move of its principal
+     * variation. If that reply is played, the search carries on as the
+     * engine's next; if not, it is stopped, though what it put in the
+     * transposition table is kept. Moves are read on a thread of their own,
+     * so that reading and searching can overlap.
+     * </p>
+     * @param engineColour The side the engine plays (1 = White, -1 = Black),
+     *                     or 0 for none.
      */
-    public void play()
+    public void play(int engineColour)
     {
-        Scanner sc = new Scanner(System.in);
+        BlockingQueue<String> inputs = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            Scanner sc = new Scanner(System.in);
+            while(sc.hasNext())
+                inputs.add(sc.next());
+        }, "input");
+        reader.setDaemon(true);
+        reader.start();
+
+        Engine2 engine = engineColour == 0 ? null : new Engine2();
+        Move expected = null;
+        TimeManager ponder = null;
+        FutureTask<SearchResult> ponderSearch = null;
+
         int colour = 1;
         boolean checkmate, underCheck, stuck, unwinnable, fifty, threefold, end;
         checkmate = underCheck = stuck = unwinnable = fifty = threefold = end = false;
@@ -68,11 +97,59 @@ public class Chess
         while(!end)
         {
             System.out.println((colour == 1 ? "WHITE" : "BLACK") + " to move.");
-            String input = sc.next();
-            input = prep(input);
-            Move move = move(colour, input);
-            if(move == null)
-                continue;
+            Move move;
+            SearchResult result = null;
+            if(colour == engineColour)
+            {
+                try {
+                    result = ponderSearch != null ? ponderSearch.get()
+                            : engine.analyse(position, TimeManager.moveTime(Engine2.MOVE_TIME));
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                catch(ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+                ponderSearch = null;
+                move = result.move;
+                System.out.println(move.toString(position.board));
+            }
+            else
+            {
+                String input;
+                try {
+                    input = inputs.take();
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                input = prep(input);
+                move = move(colour, input);
+                if(move == null)
+                    continue;
+                
+                if(ponderSearch != null) {
+                    if(move.equals(expected))
+                        ponder.ponderhit();
+                    else {
+                        ponder.stop();
+                        try {
+                            ponderSearch.get();
+                        }
+                        catch(InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        catch(ExecutionException e) {
+                            throw new IllegalStateException(e.getCause());
+                        }
+                        ponderSearch = null;
+                    }
+                }
+            }
             
             colour *= -1;
             position = position.move(move);
@@ -80,7 +157,7 @@ public class Chess
             stuck = position.stuck();
             checkmate = underCheck  &&  stuck;
             unwinnable = !position.winnable();
-            fifty = numOfMoves > 99;
+            fifty = position.halfmoveClock > 99;
             threefold = threefoldRepetition();
             end = stuck  ||  unwinnable  ||  fifty  ||  threefold;
             System.out.println(position);
@@ -88,7 +165,20 @@ public class Chess
             if(underCheck) {
                 System.out.println("CHECK!");
             }
+            
+            if(!end  &&  colour == -engineColour)
+            {
+                expected = result.pv.size() > 1 ? result.pv.get(1) : null;
+                if(expected != null) {
+                    Position ponderPosition = position.move(expected);
+                    TimeManager timeManager = ponder = TimeManager.moveTime(Engine2.MOVE_TIME).ponder();
+                    ponderSearch = new FutureTask<>(() -> engine.analyse(ponderPosition, timeManager));
+                    new Thread(ponderSearch, "ponder").start();
+                }
+            }
         }
+        if(ponderSearch != null)
+            ponder.stop();
         
         if(checkmate) {
             System.out.println("And MATE!");
@@ -245,14 +335,6 @@ public class Chess
 
             Piece theMover = worthyMovers.get(0);
             
-            if(enemyPiece != null  ||  theMover instanceof Pawn)
-            {
-                numOfMoves = 0;
-                allPositions.clear();
-            }
-            else
-                numOfMoves++;
-            
             return new Move(theMover, destinRank, destinFile, promotionPiece);
         }
 
@@ -277,16 +359,6 @@ public class Chess
      */
     public boolean threefoldRepetition()
     {
-        for(int i = 0; i < allPositions.size(); i++) {
-            Pair<Position, Integer> pair = allPositions.get(i);
-            if(position.equals(pair.getKey())) {
-                System.out.println("WOOHOO!");
-                allPositions.remove(i);
-                allPositions.add(new Pair<>(position, pair.getValue() + 1));
-                return pair.getValue() > 1;
-            }
-        }
-        allPositions.add(new Pair<>(position, 1));
-        return false;
+        return position.repetitions() > 1;
     }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package chess;
+
+import pieces.Bishop;
+import pieces.King;
+import pieces.Pawn;
+import pieces.Piece;
+
+/**
+ * Specialised evaluations for endgames the general one plays badly, chosen
+ * by {@link Material}. Each gives the score for the side with the extra
+ * material, in Pawns.
+ */
+final class Endgames
+{
+    /** Well above any material balance: a won endgame. */
+    private static final float KNOWN_WIN = 20;
+
+    private Endgames() {}
+
+    /**
+     * King and Queen or Rook against the King: drive the lone King to the
+     * edge and bring the other King up.
+     */
+    static float mateWithHeavyPiece(Position pos, int strong)
+    {
+        King winner = king(pos, strong), loser = king(pos, -strong);
+        return KNOWN_WIN + 0.2f * toEdge(loser) + 0.1f * (7 - distance(winner, loser));
+    }
+
+    /**
+     * King, Bishop and Knight against the King: mate is only possible in a
+     * corner of the Bishop's colour, so the lone King is driven to one of
+     * those.
+     */
+    static float mateWithBishopAndKnight(Position pos, int strong)
+    {
+        King winner = king(pos, strong), loser = king(pos, -strong);
+        Piece bishop = null;
+        for(Piece piece : pos.pieces)
+            if(piece instanceof Bishop)
+                bishop = piece;
+        int corner;
+        //a1 and h8 are dark, h1 and a8 light.
+        if((bishop.rank + bishop.file) % 2 == 0)
+            corner = Math.min(distance(loser.rank, loser.file, 0, 0), distance(loser.rank, loser.file, 7, 7));
+        else
+            corner = Math.min(distance(loser.rank, loser.file, 0, 7), distance(loser.rank, loser.file, 7, 0));
+        return KNOWN_WIN + 0.3f * (7 - corner) + 0.1f * (7 - distance(winner, loser));
+    }
+
+    /**
+     * King and Pawn against the King, by the rule of the square, the key
+     * squares in front of the Pawn and the Rook Pawn's drawn corner. Positions
+     * these do not settle are scored as a Pawn up, better the closer the
+     * Kings are to the Pawn than each other.
+     */
+    static float kingAndPawn(Position pos, int strong)
+    {
+        King winner = king(pos, strong), loser = king(pos, -strong);
+        Piece pawn = null;
+        for(Piece piece : pos.pieces)
+            if(piece instanceof Pawn)
+                pawn = piece;
+        int rank = pawn.relativeRank();
+        int promotion = strong == 1 ? 7 : 0;
+        boolean loserToMove = pos.turn == -strong;
+        if(loserToMove  &&  distance(loser, pawn) == 1  &&  distance(winner, pawn) > 1)
+            return 0;
+
+        //the lone King cannot catch the Pawn.
+        int pawnMoves = Math.min(7 - rank, 5);
+        int loserMoves = distance(loser.rank, loser.file, promotion, pawn.file) - (loserToMove ? 1 : 0);
+        boolean blocked = winner.file == pawn.file  &&  strong * (winner.rank - pawn.rank) > 0;
+        if(loserMoves > pawnMoves  &&  !blocked)
+            return KNOWN_WIN + rank;
+
+        //the lone King in the corner in front of a Rook Pawn holds the draw.
+        if(pawn.file % 7 == 0  &&  Math.abs(loser.file - pawn.file) <= 1
+                &&  strong * (loser.rank - pawn.rank) > 0)
+            return 0;
+
+        //the King on a key square wins: two squares in front of the Pawn and
+        //either side, or one square as well from the fifth rank on.
+        int winnerAhead = strong * (winner.rank - pawn.rank);
+        if(pawn.file % 7 != 0  &&  Math.abs(winner.file - pawn.file) <= 1
+                &&  (winnerAhead == 2  ||  rank >= 4  &&  winnerAhead == 1))
+            return KNOWN_WIN + rank;
+
+        return 1 + 0.1f * rank + 0.1f * (distance(loser, pawn) - distance(winner, pawn));
+    }
+
+    private static King king(Position pos, int colour)
+    {
+        for(Piece piece : pos.pieces)
+            if(piece instanceof King  &&  piece.colour == colour)
+                return (King) piece;
+        return null;
+    }
+
+    /** 0 in the centre, up to 3 on the edge. */
+    private static int toEdge(Piece piece)
+    {
+        return Math.max(Math.abs(2 * piece.rank - 7), Math.abs(2 * piece.file - 7)) / 2;
+    }
+
+    private static int distance(Piece a, Piece b)
+    {
+        return distance(a.rank, a.file, b.rank, b.file);
+    }
+    private static int distance(int rank1, int file1, int rank2, int file2)
+    {
+        return Math.max(Math.abs(rank1 - rank2), Math.abs(file1 - file2));
+    }
+}
@@ -1,217 +1,774 @@
 package chess;
 
+import pieces.Bitboards;
 import pieces.King;
 import pieces.Pawn;
 import pieces.Piece;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Engine2
 {
-    private ArrayList<MoveData> tree;
-    private final int LAYER = 4;
-    
-        class MoveData
-        {
-            private final Move MOVE;
-            private ArrayList<MoveData> TREE;
-            private final float EVAL;
-            
-            MoveData(Piece p, int[] move, float evaluation)
-            {
-                MOVE = new Move(p, move);
-                EVAL = evaluation;
-            }
-            
-            void setTree(ArrayList<MoveData> tree) {
-                TREE = tree;
-            }
-            
-            @Override
-            public String toString()
-            {
-                return MOVE.toString();
-            }
-            public String toString(Piece[][] board)
-            {
-                return MOVE.toString(board);
-            }
-        }
-    
-    public Move play(Position pos, Move move)
-    {
-        //System.out.println("Getting tree...");
-        tree = getTree(move);
-        //System.out.println("Growing tree...");
-        tree = growTree(tree, pos, LAYER);
-        //System.out.println("Tree grown.");
-        //printTree(tree, 0);
-        double bestMove = Integer.MIN_VALUE + 1;
-        int index = 0; int n = 0;
-        for(int i = 1; i < tree.size(); i++) {
-            MoveData possibleMove = tree.get(i);
-            double betterMove;
-            if(possibleMove.TREE == null) {
-                System.out.println("Excuse me?");
-                betterMove = possibleMove.EVAL;
-            }
-            else {
-                betterMove = - bestMove(possibleMove.TREE);
-            }
-            if(betterMove > bestMove) {
-                n = 1;
-                index = i;
-                bestMove = betterMove;
+    /** Milliseconds spent on a move when no other limit is given. */
+    static final long MOVE_TIME = 1000;
+    /** Nodes searched between looks at the clock. */
+    private static final int CHECK_INTERVAL = 1024;
+
+    static final float INFINITY = 1000000f;
+    static final float MATE = 100000f;
+    /** Scores beyond this are mates, counted in plies from the root. */
+    static final float MATE_BOUND = MATE - 1000;
+    static final int MAX_PLY = 64;
+
+    /**
+     * Singular extensions: the hash move is extended by one ply when every
+     * other move fails low against the hash score lowered by
+     * {@code SINGULAR_MARGIN} pawns per ply of depth, in a search of half the
+     * depth.
+     */
+    private static final int SINGULAR_DEPTH = 3;
+    private static final float SINGULAR_MARGIN = 0.2f;
+
+    /**
+     * ProbCut: if a capture still beats beta by {@code PROBCUT_MARGIN} pawns
+     * in a quiescence search and then in a search reduced by
+     * {@code PROBCUT_REDUCTION} plies, the full-depth search would almost
+     * surely fail high too. Only tried away from the principal variation,
+     * and on captures whose static exchange, added to the static evaluation,
+     * reaches that margin.
+     */
+    private static final int PROBCUT_DEPTH = 3;
+    private static final int PROBCUT_REDUCTION = 2;
+    private static final float PROBCUT_MARGIN = 1.0f;
+
+    private TranspositionTable table = new TranspositionTable(16);
+    private int threads = 1;
+    private boolean rootSplit;
+    private int multiPV = 1;
+    private Consumer<SearchResult> listener;
+    private List<SearchResult> lines = Collections.emptyList();
+    private Searcher[] searchers = {};
+    private TimeManager timeManager;
+    private volatile boolean stop;
+
+    /**
+     * Searches the position for {@code MOVE_TIME} milliseconds.
+     * @see #analyse(Position, TimeManager)
+     */
+    public Move play(Position pos)
+    {
+        return play(pos, TimeManager.moveTime(MOVE_TIME));
+    }
+
+    /**
+     * @return The move to play, or null if there is none.
+     * @see #analyse(Position, TimeManager)
+     */
+    public Move play(Position pos, TimeManager timeManager)
+    {
+        SearchResult result = analyse(pos, timeManager);
+        return result == null ? null : result.move;
+    }
+
+    /**
+     * Searches the position one ply deeper at a time until the time manager
+     * calls a halt or {@link #stop()} is called, and returns the best move
+     * found by then. That is the best move of the deepest iteration done
+     * with: one cut short counts for nothing, not even the moves it got
+     * through, as those were not weighed against the rest. The transposition
+     * table is kept between calls, so the work done on the previous move
+     * carries over.
+     * @param pos The position to search.
+     * @param timeManager The limits on the search.
+     * @return The best move and its score, or null if there is no legal move.
+     */
+    public SearchResult analyse(Position pos, TimeManager timeManager)
+    {
+        this.timeManager = timeManager;
+        stop = false;
+        if(rootSplit)
+            return analyseRootSplit(pos);
+
+        //the searchers of the last search, and their PV tables, are reused
+        //if they fit.
+        if(searchers.length == threads  &&  searchers[0].table == table) {
+            for(Searcher searcher : searchers)
+                searcher.reset();
+        }
+        else {
+            searchers = new Searcher[threads];
+            for(int i = 0; i < threads; i++)
+                searchers[i] = new Searcher(i, table);
+        }
+        //each thread gets a root of its own, since a position fills in its
+        //caches as it is asked for them.
+        Thread[] helpers = new Thread[threads - 1];
+        for(int i = 1; i < threads; i++) {
+            Searcher helper = searchers[i];
+            Position root = pos.copy();
+            helpers[i - 1] = new Thread(() -> helper.iterate(root), "Engine2 helper " + i);
+            helpers[i - 1].start();
+        }
+
+        SearchResult result = searchers[0].iterate(pos.copy());
+        //the helpers only wind up when told to.
+        stop = true;
+        for(Thread helper : helpers) {
+            try {
+                helper.join();
             }
-            else if(betterMove == bestMove) {
-                n++;
-                if(1d/n > Math.random())
-                    index = i;
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
-        MoveData moveToPlay = tree.get(index);
-        tree = moveToPlay.TREE;
-        return moveToPlay.MOVE;
+        return result == null ? null : result.withNodes(nodes());
+    }
+
+    /**
+     * Sets the number of best lines to search for. With more than one, each
+     * iteration searches the root moves once per line, leaving out the moves
+     * of the lines already found, and reports every line to the listener.
+     * Later lines find the table filled by the earlier ones.
+     */
+    public void setMultiPV(int multiPV)
+    {
+        this.multiPV = Math.max(multiPV, 1);
+    }
+
+    /**
+     * Sets who to tell about each line found at the end of each iteration.
+     */
+    public void setListener(Consumer<SearchResult> listener)
+    {
+        this.listener = listener;
     }
-    
-    private ArrayList<MoveData> getTree(Move move)
+
+    /**
+     * The best lines of the deepest iteration of the latest search, best
+     * first: as many as {@link #setMultiPV} asked for, if there are enough
+     * legal moves.
+     */
+    public List<SearchResult> lines()
+    {
+        return lines;
+    }
+
+    private void report(List<SearchResult> lines)
     {
-        if(move == null)
+        this.lines = lines;
+        if(listener != null)
+            for(SearchResult line : lines)
+                listener.accept(line.withNodes(nodes()));
+    }
+
+    /**
+     * Replaces the transposition table with an empty one of the given size,
+     * and sizes the {@link EvalCache}, shared by all engines, to an eighth
+     * of that on top. Not to be called during a search.
+     */
+    public void setHash(int megabytes)
+    {
+        table = new TranspositionTable(megabytes);
+        EvalCache.resize(megabytes / 8);
+    }
+
+    /**
+     * Forgets what earlier searches found, for a new game. Not to be called
+     * during a search.
+     */
+    public void clear()
+    {
+        table.clear();
+        EvalCache.clear();
+    }
+
+    /**
+     * Sets the number of threads to search with. With more than one, the
+     * search runs in Lazy SMP mode: helper threads search the same position
+     * alongside the main one and speed it up through the shared
+     * transposition table. Only the main thread's result is reported.
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * Switches between Lazy SMP and splitting the root. When splitting the
+     * root, every root move is searched as a task of its own in a
+     * {@link ForkJoinPool} of {@link #setThreads} threads, all sharing the
+     * engine's transposition table. The moves go in the order of the last
+     * iteration's scores, and each is searched against the best score of
+     * those finished before it starts, as the single-threaded search does.
+     * With more than one line asked for, every move gets the full window,
+     * so that all the scores are exact.
+     */
+    public void setRootSplit(boolean rootSplit)
+    {
+        this.rootSplit = rootSplit;
+    }
+
+    private SearchResult analyseRootSplit(Position pos)
+    {
+        ArrayList<Move> moves = orderedMoves(pos, false, 0);
+        if(moves.isEmpty())
             return null;
-        for(MoveData potentialMove : tree) {
-            if(move.equals(potentialMove.MOVE)) {
-                if(potentialMove.TREE == null) {
-                    System.out.println("CRISIS");
-                    return null;
+        searchers = new Searcher[moves.size()];
+        for(int i = 0; i < moves.size(); i++)
+            searchers[i] = new Searcher(0, table);
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        SearchResult result = null;
+        float[] scores = new float[moves.size()];
+        //each task sets only its own entry, and is joined before any is read.
+        List<List<Move>> pvs = new ArrayList<>(Collections.nCopies(moves.size(), null));
+        try {
+            for(int depth = 1; ; depth++) {
+                ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[moves.size()];
+                //the best score of the moves finished so far, as float bits.
+                AtomicInteger best = new AtomicInteger(Float.floatToIntBits(-INFINITY));
+                for(int i = 0; i < moves.size(); i++) {
+                    Searcher searcher = searchers[i];
+                    Move move = moves.get(i);
+                    Position newPos = pos.move(move);
+                    int index = i, layer = depth;
+                    tasks[i] = pool.submit(() -> {
+                        searcher.rootDepth = layer;
+                        searcher.selDepth = 0;
+                        //just below the best so far, so that equal moves come out exact.
+                        float alpha = multiPV > 1 ? -INFINITY : Math.nextDown(Float.intBitsToFloat(best.get()));
+                        float score = -searcher.search(newPos, layer - 1, -INFINITY, -alpha, 1, index == 0, 0);
+                        scores[index] = score;
+                        pvs.set(index, searcher.rootLine(move));
+                        best.accumulateAndGet(Float.floatToIntBits(score),
+                                              (a, b) -> Float.intBitsToFloat(a) >= Float.intBitsToFloat(b) ? a : b);
+                    });
                 }
-                else {
-                    return potentialMove.TREE;
+                boolean aborted = false;
+                for(ForkJoinTask<?> task : tasks)
+                    task.join();
+                for(Searcher searcher : searchers)
+                    aborted |= searcher.aborted;
+                if(aborted) {
+                    if(result == null)
+                        result = new SearchResult(1, List.of(moves.get(0)), -pos.eval(), 0, 0, nodes());
+                    break;
+                }
+
+                //the scores of the lines asked for are exact, so those after the first are just the next best.
+                int selDepth = 0;
+                for(Searcher searcher : searchers)
+                    selDepth = Math.max(selDepth, searcher.selDepth);
+                ArrayList<SearchResult> lines = new ArrayList<>();
+                boolean[] taken = new boolean[moves.size()];
+                int index = choose(scores, moves.size());
+                while(index >= 0  &&  lines.size() < multiPV) {
+                    taken[index] = true;
+                    lines.add(new SearchResult(lines.size() + 1, pvs.get(index), scores[index], depth, selDepth, nodes()));
+                    index = -1;
+                    for(int i = 0; i < moves.size(); i++)
+                        if(!taken[i]  &&  (index < 0  ||  scores[i] > scores[index]))
+                            index = i;
                 }
+                report(lines);
+                result = lines.get(0);
+                table.store(pos.key, result.move.packed(), result.score, depth, TranspositionTable.EXACT);
+                if(!timeManager.canDeepen(depth, nodes()))
+                    break;
+                //the best first next time, so that the others have a score to beat.
+                Integer[] order = new Integer[moves.size()];
+                for(int i = 0; i < order.length; i++)
+                    order[i] = i;
+                Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+                ArrayList<Move> sorted = new ArrayList<>();
+                for(int i : order)
+                    sorted.add(moves.get(i));
+                moves = sorted;
             }
         }
-        System.out.println("CRISIS Returns");
-        return null;
+        finally {
+            pool.shutdown();
+        }
+        return result;
     }
-        
-    private double bestMove(ArrayList<MoveData> tree)
+
+    /**
+     * Asks the search in progress, if any, to wind up. It returns from
+     * {@link #analyse} within {@code CHECK_INTERVAL} nodes with the best
+     * move found so far. Safe to call from any thread.
+     */
+    public void stop()
     {
-        double bestMove = Integer.MIN_VALUE + 1;
-        for(MoveData potentialMove : tree) {
-            double betterMove;
-            if(potentialMove.TREE == null)
-                betterMove = potentialMove.EVAL;
-            else
-                betterMove = -bestMove(potentialMove.TREE);
-            if(betterMove > bestMove)
-                bestMove = betterMove;
-        }
-        return bestMove;
+        stop = true;
     }
-        
-    private ArrayList<MoveData> growTree(ArrayList<MoveData> tree, Position pos, int layer)
+
+    /**
+     * The state of one thread's search. In Lazy SMP, every thread searches
+     * the whole tree from the root on its own, and they only share what
+     * they find through the transposition table. Each searches from a copy
+     * of the root of its own: a position fills in its attack maps, check
+     * squares, evaluation and so on the first time they are asked for,
+     * without any locking, so it must not be shared between threads.
+     */
+    private class Searcher
     {
-        if(tree == null)
-            return plantTree(pos, layer, LAYER - layer + 1, null);
-        if(layer < 1)
-            return tree;
-        for(MoveData potentialMove : tree)
+        private final int id;
+        private final TranspositionTable table;
+        private long nodes;
+        private int rootDepth;
+        private int selDepth;
+        private boolean aborted;
+        /**
+         * The triangular principal variation table: {@code pv[ply]} holds the
+         * best line found from {@code ply} on, in its entries {@code ply} to
+         * {@code pvLength[ply] - 1}, as packed moves.
+         */
+        private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+        private final int[] pvLength = new int[MAX_PLY + 1];
+
+        Searcher(int id, TranspositionTable table)
         {
-            Position newPos = pos.move(potentialMove.MOVE);
-            if(potentialMove.TREE == null) {
-                if(!newPos.stuck()) {
-                    potentialMove.setTree(plantTree(newPos, layer - 1, LAYER - layer + 2, null));               
+            this.id = id;
+            this.table = table;
+        }
+
+        /** Readies the searcher for a new search. */
+        void reset()
+        {
+            nodes = 0;
+            aborted = false;
+        }
+
+        /**
+         * Searches the position one ply deeper at a time. The main searcher
+         * goes on for as long as the time manager allows; helpers go on
+         * until they are stopped, and every other one starts a ply deeper,
+         * so that they fill the table ahead of the main searcher rather than
+         * behind it.
+         */
+        SearchResult iterate(Position pos)
+        {
+            SearchResult result = null;
+            for(int depth = Math.min(1 + (id & 1), timeManager.maxDepth); ; depth++) {
+                List<SearchResult> lines = searchRoot(pos, depth, id == 0 ? multiPV : 1);
+                if(!lines.isEmpty()) {
+                    result = lines.get(0);
+                    if(id == 0)
+                        report(lines);
                 }
+                if(aborted  ||  result == null)
+                    break;
+                if(id == 0 ? !timeManager.canDeepen(depth, Engine2.this.nodes()) : depth >= timeManager.maxDepth)
+                    break;
             }
-            else {
-                potentialMove.setTree(growTree(potentialMove.TREE, newPos, layer - 1));
+            return result;
+        }
+
+        /**
+         * Searches every move at the root to the given depth and returns the
+         * best, choosing at random between equally good ones. The best move of
+         * the previous iteration, kept in the transposition table, is searched
+         * first. For each further line asked for, the moves not yet chosen
+         * are searched again and the best of those is added. A line is only
+         * kept once it has been ranked against every move left, so a pass cut
+         * short by the search being abandoned adds nothing.
+         * @return The best lines, best first. Empty if the search was
+         *         abandoned after depth 1, so that the lines of the last
+         *         iteration done with stand; at depth 1, the lines done with,
+         *         or the first move if there are none.
+         */
+        private List<SearchResult> searchRoot(Position pos, int depth, int count)
+        {
+            rootDepth = depth;
+            selDepth = 0;
+            long entry = table.probe(pos.key);
+            ArrayList<Move> moves = orderedMoves(pos, false, TranspositionTable.move(entry));
+            ArrayList<SearchResult> lines = new ArrayList<>();
+            if(moves.isEmpty())
+                return lines;
+
+            while(lines.size() < count  &&  !moves.isEmpty()  &&  !aborted) {
+                float[] scores = new float[moves.size()];
+                ArrayList<List<Move>> pvs = new ArrayList<>();
+                float bestMove = -INFINITY;
+                int searched = 0;
+                for(; searched < moves.size(); searched++) {
+                    //just below the best so far, so that equal moves come out exact.
+                    float alpha = Math.nextDown(bestMove);
+                    Move move = moves.get(searched);
+                    float score = -search(pos.move(move), depth - 1, -INFINITY, -alpha, 1, searched == 0, 0);
+                    if(aborted)
+                        break;
+                    scores[searched] = score;
+                    pvs.add(rootLine(move));
+                    bestMove = Math.max(bestMove, score);
+                }
+                if(aborted) {
+                    if(depth > 1)
+                        return Collections.emptyList();
+                    //stopped before a move was ranked against all the others: any legal move will do.
+                    if(lines.isEmpty())
+                        lines.add(new SearchResult(1, List.of(moves.get(0)), -pos.eval(), 0, 0, nodes));
+                    break;
+                }
+
+                int index = choose(scores, searched);
+                Move moveToPlay = moves.remove(index);
+                if(lines.isEmpty())
+                    table.store(pos.key, moveToPlay.packed(), bestMove, depth, TranspositionTable.EXACT);
+                lines.add(new SearchResult(lines.size() + 1, pvs.get(index), bestMove, depth, selDepth, nodes));
             }
+            return lines;
         }
-        return tree;
-    }
-    private ArrayList<MoveData> plantTree(Position pos, int layer, int trueLayer, int[] captureLocation)
-    {
-        if(layer < 1)
-            return null;
-        ArrayList<MoveData> tree = new ArrayList<>();
-        for(int i = 0; i < pos.pieces.size(); i++) {
-            Piece piece = pos.pieces.get(i);
-            if(piece.colour != pos.turn) {
-                continue;
+
+        /**
+         * The line found for a move just searched from the root: the move
+         * itself followed by the principal variation from ply 1.
+         */
+        private List<Move> rootLine(Move move)
+        {
+            ArrayList<Move> line = new ArrayList<>();
+            line.add(move);
+            for(int i = 1; i < pvLength[1]; i++)
+                line.add(new Move(pv[1][i]));
+            return line;
+        }
+
+        /**
+         * Makes the given move, followed by the line from the next ply, the
+         * principal variation from this ply.
+         */
+        private void updatePV(int ply, int move)
+        {
+            pv[ply][ply] = move;
+            for(int i = ply + 1; i < pvLength[ply + 1]; i++)
+                pv[ply][i] = pv[ply + 1][i];
+            pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+        }
+
+        /**
+         * Counts a node and, every {@code CHECK_INTERVAL} nodes, checks whether
+         * the search has been stopped or the time manager calls a halt. Once it
+         * has, every search on the stack returns at once, and its score is
+         * thrown away.
+         * @return Whether the search has been abandoned.
+         */
+        private boolean abort()
+        {
+            if(++nodes % CHECK_INTERVAL == 0
+                    &&  (stop  ||  id == 0  &&  timeManager.expired(Engine2.this.nodes())))
+                aborted = true;
+            return aborted;
+        }
+
+        /**
+         * Fail-soft alpha-beta search.
+         * @param pv Whether the node is on the principal variation: the first
+         *           move searched at the root, and at each such node after.
+         * @param excluded A packed move to leave out, for the singular extension
+         *                 search, or 0. Such searches neither use nor fill the
+         *                 transposition table.
+         * @return The score for the player to move, in pawns.
+         */
+        private float search(Position pos, int depth, float alpha, float beta, int ply, boolean pv, int excluded)
+        {
+            if(depth < 1  ||  ply >= MAX_PLY)
+                return quiesce(pos, alpha, beta, ply);
+            pvLength[ply] = ply;
+            selDepth = Math.max(selDepth, ply);
+            if(abort())
+                return 0;
+            //once is enough: whatever could be gained, the opponent can repeat again.
+            if(pos.halfmoveClock >= 100  ||  pos.repetitions() > 0)
+                return 0;
+
+            long entry = table.probe(pos.key);
+            int hashMove = TranspositionTable.move(entry);
+            if(entry != 0  &&  excluded == 0  &&  TranspositionTable.depth(entry) >= depth) {
+                float score = fromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if(bound == TranspositionTable.EXACT
+                        ||  bound == TranspositionTable.LOWER  &&  score >= beta
+                        ||  bound == TranspositionTable.UPPER  &&  score <= alpha)
+                    return score;
             }
-            ArrayList<int[]> moves = piece.movableTo(pos);
-            for(int[] move : moves) {
-				
-                if(captureLocation != null  &&  (move[0] != captureLocation[0]  ||  move[1] != captureLocation[1]))
-                    continue;
-                
-                boolean capture = false, doubleMove = false;
-                ArrayList<Piece> newPieces = (ArrayList<Piece>) pos.pieces.clone();
-                newPieces.remove(i);
-                
-                //capture...
-                for(int j = 0; j < newPieces.size(); j++) {
-                    Piece enemyPiece = newPieces.get(j);
-                    if(move[0] == enemyPiece.rank  &&  move[1] == enemyPiece.file) {
-                        capture = true;
-                        newPieces.remove(j);
-                        break;
-                    }
+
+            if(!pv  &&  excluded == 0  &&  depth >= PROBCUT_DEPTH  &&  !pos.CHECK  &&  Math.abs(beta) < MATE_BOUND) {
+                float score = probCut(pos, depth, beta, ply);
+                if(aborted)
+                    return 0;
+                if(score >= beta)
+                    return score;
+            }
+
+            //a stored move may come from another position with the same index.
+            if(hashMove != 0  &&  !pos.isLegal(hashMove))
+                hashMove = 0;
+            //the hash move on its own first: if it cuts off, the rest need not be generated.
+            boolean hashFirst = hashMove != 0  &&  excluded == 0;
+            ArrayList<Move> moves = hashFirst ? new ArrayList<>(List.of(new Move(hashMove)))
+                                              : orderedMoves(pos, false, hashMove);
+            if(moves.isEmpty())
+                return pos.CHECK ? -MATE + ply : 0;
+
+            //singular extension...
+            int extension = 0;
+            if(hashMove != 0  &&  excluded == 0  &&  depth >= SINGULAR_DEPTH  &&  ply < 2 * rootDepth
+                    &&  (TranspositionTable.bound(entry) & TranspositionTable.LOWER) != 0
+                    &&  TranspositionTable.depth(entry) >= depth - 3) {
+                float hashScore = fromTable(TranspositionTable.score(entry), ply);
+                if(Math.abs(hashScore) < MATE_BOUND) {
+                    float singularBeta = hashScore - SINGULAR_MARGIN * depth;
+                    float score = search(pos, (depth - 1) / 2, Math.nextDown(singularBeta), singularBeta, ply, false, hashMove);
+                    if(aborted)
+                        return 0;
+                    if(score < singularBeta)
+                        extension = 1;
+                    pvLength[ply] = ply;
                 }
-                //castling...
-                if(piece instanceof King  &&  Math.abs(move[1] - piece.file) == 2) {
-                    int rookFile = move[1] == 2 ? 0 : 7;
-                    for(int j = 0; j < newPieces.size(); j++) {
-                        Piece rook = newPieces.get(j);
-                        if(rook.rank == piece.rank  &&  rook.file == rookFile) {
-                            newPieces.remove(j);
-                            newPieces.add(rook.move(piece.rank, rookFile == 0 ? 3 : 5));
+            }
+
+            float oldAlpha = alpha;
+            float bestScore = -INFINITY;
+            int bestMove = 0;
+            for(int i = 0; i < moves.size(); i++) {
+                Move move = moves.get(i);
+                int packed = move.packed();
+                if(packed == excluded  ||  i > 0  &&  packed == hashMove)
+                    continue;
+                int newDepth = depth - 1 + (packed == hashMove ? extension : 0);
+                float score = -search(pos.move(move), newDepth, -beta, -alpha, ply + 1, pv  &&  bestMove == 0, 0);
+                if(aborted)
+                    return 0;
+                if(score > bestScore) {
+                    bestScore = score;
+                    bestMove = packed;
+                    if(score > alpha) {
+                        alpha = score;
+                        updatePV(ply, packed);
+                        if(score >= beta)
                             break;
-                        }
                     }
                 }
-                //en passant and double moving...
-                if(piece instanceof Pawn) {
-                    if(piece.file != move[1]  &&  pos.board[move[0]][move[1]] == null) {
-                        capture = true;
-                        Piece p = pos.board[piece.rank][move[1]];
-                        newPieces.remove(p);
+                if(hashFirst  &&  i == 0)
+                    moves.addAll(orderedMoves(pos, false, hashMove));
+            }
+            //the excluded move was the only one.
+            if(bestMove == 0)
+                return alpha;
+
+            if(excluded == 0) {
+                int bound = bestScore >= beta ? TranspositionTable.LOWER
+                        : bestScore > oldAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+                table.store(pos.key, bestMove, toTable(bestScore, ply), depth, bound);
+            }
+            return bestScore;
+        }
+
+        /**
+         * ProbCut on the captures and Queen promotions, found from the
+         * attack maps rather than by generating the moves. A capture is only
+         * tried if its static exchange does not lose material and, added to
+         * the static evaluation, reaches the raised beta.
+         * @return A score of at least the raised beta if a capture reaches it
+         *         in both searches, or -INFINITY.
+         */
+        private float probCut(Position pos, int depth, float beta, int ply)
+        {
+            float probBeta = beta + PROBCUT_MARGIN;
+            //eval() is from the point of view of the player who just moved.
+            float needed = probBeta + pos.eval();
+            //the captures that pass, most valuable victim first.
+            int[] captures = new int[32];
+            float[] victims = new float[32];
+            int count = 0;
+            long targets = pos.occupied(-pos.turn);
+            for(int p = 0; p < pos.pieces.size(); p++) {
+                Piece piece = pos.pieces.get(p);
+                if(piece.colour != pos.turn)
+                    continue;
+                long squares = pos.attacks(piece) & targets;
+                int promotion = 0;
+                if(piece instanceof Pawn  &&  piece.relativeRank() == 6) {
+                    promotion = 1;
+                    if(pos.board[piece.rank + piece.colour][piece.file] == null)
+                        squares |= Bitboards.square(piece.rank + piece.colour, piece.file);
+                }
+                int origin = (piece.rank << 3) + piece.file;
+                for(; squares != 0; squares &= squares - 1) {
+                    int to = Long.numberOfTrailingZeros(squares);
+                    int packed = origin << 9 | to << 3 | promotion;
+                    if(!pos.isLegal(packed)  ||  pos.see(new Move(packed)) < Math.max(0, needed))
+                        continue;
+                    Piece victim = pos.board[to >> 3][to & 7];
+                    float value = (victim == null ? 0 : victim.value()) + 8 * promotion;
+                    int i = count++;
+                    if(count == captures.length) {
+                        captures = Arrays.copyOf(captures, 2 * count);
+                        victims = Arrays.copyOf(victims, 2 * count);
                     }
-                    else if(Math.abs(move[0] - piece.rank) == 2) {
-                        doubleMove = true;
+                    for(; i > 0  &&  victims[i - 1] < value; i--) {
+                        captures[i] = captures[i - 1];
+                        victims[i] = victims[i - 1];
                     }
+                    captures[i] = packed;
+                    victims[i] = value;
                 }
-                
-                Piece movedPiece = piece.move(new Move(piece, move));
-                newPieces.add(movedPiece);
-                
-                Position newPosition = new Position(newPieces, -pos.turn, doubleMove ? (Pawn) movedPiece : null);
-                capture = capture  &&  newPosition.underAttack(movedPiece.rank, movedPiece.file);
-                int newLayer = layer > 1 ? layer - 1 : (newPosition.CHECK ? 2 : (capture ? 1 : 0));
-                
-                MoveData possibleMove = new MoveData(piece, move, newPosition.eval());
-                if(!capture  ||  newPosition.CHECK)
-                    move = null;
-                //for(int j = 1; j < trueLayer; j++)
-                //    System.out.print('\t');
-                //System.out.println(trueLayer + possibleMove.toString(pos.board));
-                possibleMove.setTree(plantTree(newPosition, /*newLayer*/ layer - 1, trueLayer + 1, move));
-                tree.add(possibleMove);
-            }
-        }
-        //System.out.println("--------------LAYER " + trueLayer + "---------------");
-        return tree;  
-    }
-    
-    private void printTree(ArrayList<MoveData> tree, int layer)
-    {
-        if(layer > 1)
-            return;
-        for(MoveData m : tree)
+            }
+
+            for(int i = 0; i < count; i++) {
+                Position newPos = pos.move(new Move(captures[i]));
+                float score = -quiesce(newPos, -probBeta, Math.nextUp(-probBeta), ply + 1);
+                if(score >= probBeta)
+                    score = -search(newPos, depth - 1 - PROBCUT_REDUCTION, -probBeta, Math.nextUp(-probBeta), ply + 1, false, 0);
+                if(aborted  ||  score >= probBeta)
+                    return score;
+            }
+            return -INFINITY;
+        }
+
+        /**
+         * Searches captures (and Queen promotions) until the position is quiet,
+         * so that the static evaluation is never taken in the middle of an
+         * exchange. All moves are searched when in check.
+         */
+        private float quiesce(Position pos, float alpha, float beta, int ply)
         {
-            for(int i = 0; i < layer; i++)
-                System.out.print('\t');
-            System.out.printf("%s %.2f\n", m.toString(), m.EVAL);
-            if(m.TREE != null)
-                printTree(m.TREE, layer + 1);
+            pvLength[ply] = ply;
+            selDepth = Math.max(selDepth, ply);
+            if(abort())
+                return 0;
+            //eval() is from the point of view of the player who just moved.
+            if(ply >= MAX_PLY)
+                return -pos.eval();
+            float bestScore = -INFINITY;
+            if(!pos.CHECK) {
+                //only which side of the window it falls on matters here.
+                bestScore = -pos.eval(-beta, -alpha);
+                if(bestScore >= beta)
+                    return bestScore;
+                if(bestScore > alpha)
+                    alpha = bestScore;
+            }
+
+            ArrayList<Move> moves = orderedMoves(pos, !pos.CHECK, 0);
+            if(pos.CHECK  &&  moves.isEmpty())
+                return -MATE + ply;
+            for(Move move : moves) {
+                float score = -quiesce(pos.move(move), -beta, -alpha, ply + 1);
+                if(aborted)
+                    return 0;
+                if(score > bestScore) {
+                    bestScore = score;
+                    if(score > alpha) {
+                        alpha = score;
+                        updatePV(ply, move.packed());
+                        if(score >= beta)
+                            break;
+                    }
+                }
+            }
+            return bestScore;
+        }
+    }
+
+    /**
+     * Picks the highest of the first {@code count} scores, at random between
+     * equal ones.
+     * @return The index of the chosen score, or -1 if there is none.
+     */
+    private static int choose(float[] scores, int count)
+    {
+        float bestMove = -INFINITY;
+        int index = -1; int n = 0;
+        for(int i = 0; i < count; i++) {
+            if(scores[i] > bestMove) {
+                n = 1;
+                index = i;
+                bestMove = scores[i];
+            }
+            else if(scores[i] == bestMove) {
+                n++;
+                if(1d/n > Math.random())
+                    index = i;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Generates the legal moves in the position, the hash move first,
+     * captures next, most valuable victim first and least valuable attacker
+     * first among those, and the quiet moves last.
+     * @param tactical Whether to leave out quiet moves.
+     * @param hashMove The packed move to put first, or 0.
+     */
+    private static ArrayList<Move> orderedMoves(Position pos, boolean tactical, int hashMove)
+    {
+        ArrayList<Move> moves = new ArrayList<>();
+        ArrayList<Float> order = new ArrayList<>();
+        for(Piece piece : pos.pieces) {
+            if(piece.colour != pos.turn)
+                continue;
+            for(int[] square : piece.movableTo(pos)) {
+                Move move = new Move(piece, square);
+                Piece victim = pos.board[square[0]][square[1]];
+                boolean enPassant = piece instanceof Pawn  &&  square[1] != piece.file  &&  victim == null;
+                if(tactical  &&  victim == null  &&  !enPassant  &&  move.promotion() != 1)
+                    continue;
+
+                float priority;
+                if(move.packed() == hashMove)
+                    priority = INFINITY;
+                else if(victim != null)
+                    priority = 10 * victim.value() - material(piece);
+                else if(enPassant)
+                    priority = 10 - 1;
+                else if(move.promotion() == 1)
+                    priority = 10 * 9;
+                //quiet checks ahead of the other quiet moves.
+                else if(!tactical  &&  pos.givesCheck(move))
+                    priority = 0;
+                else
+                    priority = -INFINITY;
+
+                int i = order.size();
+                while(i > 0  &&  order.get(i - 1) < priority)
+                    i--;
+                moves.add(i, move);
+                order.add(i, priority);
+            }
         }
+        return moves;
+    }
+
+    private static float material(Piece piece)
+    {
+        return piece instanceof King ? 0 : piece.value();
+    }
+
+    /** Mate scores are stored relative to the node rather than the root. */
+    private static float toTable(float score, int ply)
+    {
+        return score > MATE_BOUND ? score + ply : score < -MATE_BOUND ? score - ply : score;
+    }
+    private static float fromTable(float score, int ply)
+    {
+        return score > MATE_BOUND ? score - ply : score < -MATE_BOUND ? score + ply : score;
+    }
+
+    /** The nodes searched by all threads in the latest search. */
+    public long nodes()
+    {
+        long nodes = 0;
+        for(Searcher searcher : searchers)
+            nodes += searcher.nodes;
+        return nodes;
     }
 }
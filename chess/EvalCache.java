@@ -0,0 +1,106 @@
+package chess;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Static evaluations by {@link Position#key}, so that a position reached
+ * again, by a transposition or in another search thread, is not evaluated
+ * again. Quiescence search meets the same positions over and over.
+ * <p>
+ * Like {@link TranspositionTable}, the table is shared without locking and
+ * stores each key XORed with its score, so that an entry torn by two threads
+ * writing at once reads as a miss. It is sized along with the transposition
+ * table, by {@link Engine2#setHash}.
+ * </p>
+ */
+final class EvalCache
+{
+    /** The keys and scores, replaced whole when the table is resized. */
+    private static final class Table
+    {
+        final long[] keys;
+        final long[] scores;
+        final int mask;
+
+        Table(int size)
+        {
+            keys = new long[size];
+            scores = new long[size];
+            mask = size - 1;
+        }
+    }
+
+    /** The size the table starts out at, in megabytes: an eighth of the default Hash. */
+    private static final int DEFAULT_MEGABYTES = 2;
+    private static volatile Table table = new Table(entries(DEFAULT_MEGABYTES));
+    /** Set on every stored score, to tell it from an empty slot. */
+    private static final long FILLED = 1L << 32;
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private EvalCache() {}
+
+    /**
+     * @return The score stored for the position, or {@code Float.NaN} if
+     *         there is none
+     */
+    static float probe(long key)
+    {
+        Table table = EvalCache.table;
+        int index = (int) key & table.mask;
+        long score = table.scores[index];
+        if((table.keys[index] ^ score) == key  &&  score != 0)
+        {
+            HITS.increment();
+            return Float.intBitsToFloat((int) score);
+        }
+        MISSES.increment();
+        return Float.NaN;
+    }
+
+    static void store(long key, float score)
+    {
+        Table table = EvalCache.table;
+        int index = (int) key & table.mask;
+        long entry = FILLED | Float.floatToIntBits(score) & 0xffffffffL;
+        table.keys[index] = key ^ entry;
+        table.scores[index] = entry;
+    }
+
+    /**
+     * Replaces the table with an empty one of the given size, unless it is
+     * that size already.
+     */
+    static synchronized void resize(int megabytes)
+    {
+        int size = entries(megabytes);
+        if(size != table.keys.length)
+            table = new Table(size);
+    }
+
+    /** The entries that fit in the given megabytes, a power of two. */
+    private static int entries(int megabytes)
+    {
+        //two longs to an entry.
+        long entries = Math.max(1, megabytes) * (1L << 20) / 16;
+        return Integer.highestOneBit((int) Math.min(entries, 1 << 30));
+    }
+
+    static void clear()
+    {
+        Table table = EvalCache.table;
+        Arrays.fill(table.keys, 0);
+        Arrays.fill(table.scores, 0);
+    }
+
+    static long hits() { return HITS.sum(); }
+    static long misses() { return MISSES.sum(); }
+
+    static void resetCounters()
+    {
+        HITS.reset();
+        MISSES.reset();
+    }
+}
@@ -0,0 +1,20 @@
+package chess;
+
+/**
+ * A static evaluation of positions, for {@link Position#eval()} to delegate
+ * to. The classic hand-written one is {@link Position#CLASSIC}; {@link Nnue}
+ * is a neural network.
+ * <p>
+ * Checkmates, and positions already evaluated, are dealt with before an
+ * evaluator is asked.
+ * </p>
+ */
+@FunctionalInterface
+public interface Evaluator
+{
+    /**
+     * @return The score in Pawns, from the point of view of the player who
+     *         just moved, like {@link Position#eval()}
+     */
+    float evaluate(Position pos);
+}
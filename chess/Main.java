@@ -2,8 +2,19 @@ package chess;
 
 public class Main
 {
+    /**
+     * @param args "white" or "black" for the engine to play that side, or
+     *             "uci" to be driven by a GUI through {@link Uci}.
+     */
     public static void main(String[] args) throws Exception
     {
-        new Chess().play();
+        if(args.length > 0  &&  args[0].equalsIgnoreCase("uci")) {
+            new Uci().run();
+            return;
+        }
+        int engineColour = 0;
+        if(args.length > 0)
+            engineColour = args[0].equalsIgnoreCase("white") ? 1 : args[0].equalsIgnoreCase("black") ? -1 : 0;
+        new Chess().play(engineColour);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,177 @@
+package chess;
+
+import pieces.Piece;
+
+/**
+ * What the material alone, whatever the squares, says about a position: the
+ * game phase, whether either side can still mate at all, how drawish it is,
+ * and for some endgames a specialised evaluation to use instead of the
+ * general one.
+ * <p>
+ * The material is identified by a key that packs four bits of count for each
+ * kind of piece of each colour, Bishops counted apart by the colour of their
+ * square; see {@link #key(Piece)}. Positions are kept up to date with it move
+ * by move. Few material balances occur in a game, so the entries are kept
+ * in a table, shared by all search threads like {@link PawnStructure}'s.
+ * </p>
+ */
+final class Material
+{
+    /** The counts in a key, for either colour. */
+    static final int QUEEN = 0, ROOK = 1, LIGHT_BISHOP = 2, DARK_BISHOP = 3, KNIGHT = 4, PAWN = 5;
+    private static final int[] PHASE = {4, 2, 1, 1, 1, 0};
+    private static final float[] VALUE = {9, 5, 3.2f, 3.2f, 3, 1};
+
+    private static final Material[] TABLE = new Material[1 << 12];
+
+    /**
+     * A specialised evaluation of an endgame.
+     */
+    interface Endgame
+    {
+        /**
+         * @param strong The colour of the side with the extra material
+         * @return The score for the strong side, in Pawns
+         */
+        float evaluate(Position pos, int strong);
+    }
+
+    final long key;
+    /** From {@link PieceSquareTables#MAX_PHASE} with all the pieces on, down to 0. */
+    final int phase;
+    /** Neither side has the material to mate with. */
+    final boolean insufficient;
+    /** What the general evaluation is multiplied by: 1, or less if drawish. */
+    final float scale;
+    /** The evaluation to use instead of the general one, or null. */
+    final Endgame endgame;
+    /** The colour the endgame evaluation is for. */
+    final int strong;
+
+    /**
+     * The count of the piece in a material key, as a number to add to it for
+     * the piece or to subtract for its loss. Kings are not counted.
+     */
+    static long key(Piece piece)
+    {
+        int type = (piece.symbol - '♔') % 6;
+        if(type == 0)
+            return 0;
+        int kind = type == 3 ? ((piece.rank + piece.file) % 2 == 1 ? LIGHT_BISHOP : DARK_BISHOP)
+                 : type < 3 ? type - 1 : type;
+        return 1L << ((piece.colour == 1 ? kind : 6 + kind) << 2);
+    }
+
+    /**
+     * The entry for the given position's material, from the table if it has
+     * been seen before.
+     */
+    static Material of(Position pos)
+    {
+        long key = pos.materialKey();
+        int index = (int) ((key * 0x9e3779b97f4a7c15L) >>> 52);
+        Material entry = TABLE[index];
+        if(entry != null  &&  entry.key == key)
+            return entry;
+        entry = new Material(key);
+        TABLE[index] = entry;
+        return entry;
+    }
+
+    /** The number of the given kind of piece the given side has. */
+    static int count(long key, int colour, int kind)
+    {
+        return (int) (key >>> ((colour == 1 ? kind : 6 + kind) << 2)) & 0xf;
+    }
+
+    private Material(long key)
+    {
+        this.key = key;
+        int phase = 0;
+        for(int kind = QUEEN; kind <= PAWN; kind++)
+            phase += PHASE[kind] * (count(key, 1, kind) + count(key, -1, kind));
+        this.phase = phase;
+        insufficient = insufficient(key);
+
+        float white = pieceValue(key, 1), black = pieceValue(key, -1);
+        int strong = white + count(key, 1, PAWN) >= black + count(key, -1, PAWN) ? 1 : -1;
+        long strongKey = strong == 1 ? key & 0xffffffL : key >>> 24;
+        long weakKey = strong == 1 ? key >>> 24 : key & 0xffffffL;
+
+        Endgame endgame = null;
+        if(weakKey == 0  &&  !insufficient)
+        {
+            if(strongKey == 1L << (QUEEN << 2)  ||  strongKey == 1L << (ROOK << 2))
+                endgame = Endgames::mateWithHeavyPiece;
+            else if(strongKey == (1L << (KNIGHT << 2) | 1L << (LIGHT_BISHOP << 2))
+                    ||  strongKey == (1L << (KNIGHT << 2) | 1L << (DARK_BISHOP << 2)))
+                endgame = Endgames::mateWithBishopAndKnight;
+            else if(strongKey == 1L << (PAWN << 2))
+                endgame = Endgames::kingAndPawn;
+        }
+        this.endgame = endgame;
+        this.strong = strong;
+
+        if(insufficient)
+            scale = 0;
+        else if(oppositeBishops(key))
+            scale = 0.5f;
+        //without Pawns, a minor piece up is rarely enough.
+        else if(count(key, strong, PAWN) == 0  &&  Math.abs(white - black) < VALUE[ROOK] - 1)
+            scale = 0.25f;
+        else
+            scale = 1;
+    }
+
+    private static float pieceValue(long key, int colour)
+    {
+        float value = 0;
+        for(int kind = QUEEN; kind < PAWN; kind++)
+            value += VALUE[kind] * count(key, colour, kind);
+        return value;
+    }
+
+    /**
+     * Whether neither side can ever mate: see {@link Position#winnable()}.
+     */
+    private static boolean insufficient(long key)
+    {
+        int white = 0, black = 0;
+        for(int kind = QUEEN; kind <= PAWN; kind++) {
+            white += count(key, 1, kind);
+            black += count(key, -1, kind);
+        }
+        //just the two kings, or at least one side has 2 pieces.
+        if(white + black == 0)
+            return true;
+        if(white + black > 2)
+            return false;
+        for(int colour = -1; colour <= 1; colour += 2)
+            if(count(key, colour, PAWN) + count(key, colour, ROOK) + count(key, colour, QUEEN) > 0)
+                return false;
+        //one minor piece alone cannot mate; one side with two can.
+        if(white + black == 1)
+            return true;
+        if(white != 1)
+            return false;
+        //a minor each. Only Bishops on the same colour can never mate:
+        //in |kbB5|8|K7|8|8|8|8|8|, for instance, Bb7# is checkmate.
+        return count(key, 1, LIGHT_BISHOP) == 1  &&  count(key, -1, LIGHT_BISHOP) == 1
+            ||  count(key, 1, DARK_BISHOP) == 1  &&  count(key, -1, DARK_BISHOP) == 1;
+    }
+
+    /**
+     * One Bishop each, on squares of opposite colours, and nothing else but
+     * Pawns.
+     */
+    private static boolean oppositeBishops(long key)
+    {
+        for(int colour = -1; colour <= 1; colour += 2)
+            if(count(key, colour, QUEEN) + count(key, colour, ROOK) + count(key, colour, KNIGHT) > 0)
+                return false;
+        return count(key, 1, LIGHT_BISHOP) == 1  &&  count(key, 1, DARK_BISHOP) == 0
+                &&  count(key, -1, DARK_BISHOP) == 1  &&  count(key, -1, LIGHT_BISHOP) == 0
+            ||  count(key, 1, DARK_BISHOP) == 1  &&  count(key, 1, LIGHT_BISHOP) == 0
+                &&  count(key, -1, LIGHT_BISHOP) == 1  &&  count(key, -1, DARK_BISHOP) == 0;
+    }
+}
@@ -16,6 +16,11 @@ public class Move
         ORIGIN = (p.rank << 3) + (p.file);
         DESTIN = (rank << 6) + (file << 3) + (promotion);
     }
+    Move(int packed)
+    {
+        ORIGIN = packed >>> 9;
+        DESTIN = packed & 0x1ff;
+    }
     
     public int originRank() { return ORIGIN >> 3; }
     public int originFile() { return ORIGIN & 0b111; }
@@ -24,6 +29,42 @@ public class Move
     public int file() { return (DESTIN >> 3) & 0b111; }
     public int promotion() { return DESTIN & 0b111;}
     
+    /**
+     * Returns this move packed into the low 15 bits of an {@code int}: the
+     * origin square in bits 9-14, followed by the destination rank, file and
+     * promotion piece. A packed move is never 0, since no move ends on the
+     * square it starts from.
+     * @return The packed move, as accepted by {@link #Move(int)}.
+     */
+    public int packed() { return (ORIGIN << 9) | DESTIN; }
+    
+    /**
+     * Reads a move in the long algebraic notation of the UCI protocol, such
+     * as "e2e4", "e7e8q" or "e1g1" for castling. Whether the move can be
+     * played is not checked.
+     * @return The move, or null if the text is not a move.
+     */
+    public static Move fromUci(String text)
+    {
+        if(text.length() < 4  ||  text.length() > 5)
+            return null;
+        int originFile = text.charAt(0) - 'a', originRank = text.charAt(1) - '1';
+        int file = text.charAt(2) - 'a', rank = text.charAt(3) - '1';
+        int promotion = text.length() == 5 ? "qrbn".indexOf(text.charAt(4)) + 1 : 0;
+        if(!Utils.exists(originRank, originFile)  ||  !Utils.exists(rank, file)
+                ||  text.length() == 5  &&  promotion == 0
+                ||  originRank == rank  &&  originFile == file)
+            return null;
+        return new Move((((originRank << 3) + originFile) << 9) + (rank << 6) + (file << 3) + promotion);
+    }
+
+    /** This move in the notation {@link #fromUci} reads. */
+    public String toUci()
+    {
+        String move = "" + (char) (originFile() + 'a') + (originRank() + 1) + (char) (file() + 'a') + (rank() + 1);
+        return promotion() == 0 ? move : move + "qrbn".charAt(promotion() - 1);
+    }
+    
     public boolean equals(Move m)
     {
         return (m == null ? false : this.ORIGIN == m.ORIGIN  &&  this.DESTIN == m.DESTIN); 
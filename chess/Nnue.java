@@ -0,0 +1,321 @@
+package chess;
+
+import pieces.King;
+import pieces.Piece;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * An efficiently updatable neural network evaluation, after the HalfKP
+ * networks of other engines.
+ * <p>
+ * The input is, from each player's side of the board, which of the other
+ * pieces stands on which square given where that player's King is: 64 King
+ * squares times 10 kinds of piece times 64 squares. Since only a few pieces
+ * change squares in a move, the first layer's sums (the accumulator) are kept
+ * in the {@link Position} and updated move by move, only recomputed in full
+ * for the side whose King moved. The accumulator, the player to move's half
+ * first, goes through two small hidden layers to the output. Their weights
+ * are 8-bit in the file and held as shorts, as are the activations, clipped
+ * to 0 to 127, so that no product overflows 16 bits; the products are summed
+ * in 32.
+ * </p>
+ * <p>
+ * The dense layers and accumulator updates use the incubating Vector API
+ * when the JVM runs with {@code --add-modules jdk.incubator.vector} and the
+ * kernels in {@code vector/}, compiled apart from the rest (see
+ * {@code NnueVectorKernels}), are on the class path; plain loops otherwise.
+ * </p>
+ * The network is read from a binary file, see {@link #load}. Use it with
+ * {@link Position#setEvaluator}.
+ */
+public final class Nnue implements Evaluator
+{
+    private static final int MAGIC = 0x53524e4e;
+    static final int INPUTS = 64 * 10 * 64;
+    /** The largest value of a clipped activation: 1.0 in fixed point. */
+    private static final int ONE = 127;
+    /** Hidden weights are scaled by 64. */
+    private static final int WEIGHT_SHIFT = 6;
+    /** Output units per Pawn. */
+    private static final float OUTPUT_SCALE = 1600f;
+
+    private static final Kernels KERNELS = loadKernels();
+
+    final int hidden;
+    private final int layer2, layer3;
+    /** Feature transformer: {@code hidden} weights per input, then the biases. */
+    private final short[] inputWeights, inputBias;
+    /** The dense layers' weights, row by row, within 8 bits. */
+    private final short[] weights1, weights2, weights3;
+    private final int[] bias1, bias2;
+    private final int bias3;
+
+    /** Per thread: the clipped accumulator and the hidden activations. */
+    private final ThreadLocal<short[][]> scratch;
+
+    private Nnue(int hidden, int layer2, int layer3)
+    {
+        this.hidden = hidden;
+        this.layer2 = layer2;
+        this.layer3 = layer3;
+        inputWeights = new short[INPUTS * hidden];
+        inputBias = new short[hidden];
+        weights1 = new short[layer2 * 2 * hidden];
+        bias1 = new int[layer2];
+        weights2 = new short[layer3 * layer2];
+        bias2 = new int[layer3];
+        weights3 = new short[layer3];
+        bias3 = 0;
+        scratch = ThreadLocal.withInitial(() -> new short[][] {new short[2 * hidden], new short[layer2], new short[layer3]});
+    }
+
+    private Nnue(int hidden, int layer2, int layer3, DataInputStream in) throws IOException
+    {
+        this.hidden = hidden;
+        this.layer2 = layer2;
+        this.layer3 = layer3;
+        inputWeights = readShorts(in, INPUTS * hidden);
+        inputBias = readShorts(in, hidden);
+        weights1 = readBytes(in, layer2 * 2 * hidden);
+        bias1 = readInts(in, layer2);
+        weights2 = readBytes(in, layer3 * layer2);
+        bias2 = readInts(in, layer3);
+        weights3 = readBytes(in, layer3);
+        bias3 = in.readInt();
+        scratch = ThreadLocal.withInitial(() -> new short[][] {new short[2 * hidden], new short[layer2], new short[layer3]});
+    }
+
+    /**
+     * Reads a network. The file holds, as big-endian numbers: the int
+     * {@code 0x53524e4e}, the three layer sizes as ints, the input weights
+     * as shorts (input by input), the input biases as shorts, then for each
+     * dense layer its weights as bytes (row by row) and biases as ints.
+     */
+    public static Nnue load(Path file) throws IOException
+    {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16)))
+        {
+            if(in.readInt() != MAGIC)
+                throw new IOException(file + " is not a network file");
+            int hidden = in.readInt(), layer2 = in.readInt(), layer3 = in.readInt();
+            if(hidden <= 0  ||  layer2 <= 0  ||  layer3 <= 0)
+                throw new IOException(file + ": bad layer sizes");
+            return new Nnue(hidden, layer2, layer3, in);
+        }
+    }
+
+    /** Writes the network in the format {@link #load} reads. */
+    public void save(Path file) throws IOException
+    {
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(hidden);
+            out.writeInt(layer2);
+            out.writeInt(layer3);
+            for(short weight : inputWeights)
+                out.writeShort(weight);
+            for(short bias : inputBias)
+                out.writeShort(bias);
+            writeLayer(out, weights1, bias1);
+            writeLayer(out, weights2, bias2);
+            for(short weight : weights3)
+                out.writeByte(weight);
+            out.writeInt(bias3);
+        }
+    }
+
+    /**
+     * A network of random weights: meaningless scores, but the real cost,
+     * for benchmarking without a trained network.
+     */
+    public static Nnue random(long seed, int hidden)
+    {
+        Random random = new Random(seed);
+        Nnue net = new Nnue(hidden, 32, 32);
+        for(int i = 0; i < net.inputWeights.length; i++)
+            net.inputWeights[i] = (short) (random.nextInt(64) - 32);
+        for(int i = 0; i < hidden; i++)
+            net.inputBias[i] = (short) random.nextInt(64);
+        for(short[] weights : new short[][] {net.weights1, net.weights2, net.weights3})
+            for(int i = 0; i < weights.length; i++)
+                weights[i] = (short) (random.nextInt(256) - 128);
+        return net;
+    }
+
+    @Override
+    public float evaluate(Position pos)
+    {
+        short[][] accumulator = pos.networkAccumulator(this);
+        if(accumulator == null)
+        {
+            accumulator = new short[2][];
+            for(int side = 0; side < 2; side++)
+            {
+                accumulator[side] = new short[hidden];
+                refresh(accumulator[side], side == 0 ? 1 : -1, pos.pieces);
+            }
+        }
+        short[][] buffers = scratch.get();
+        short[] input = buffers[0], hidden1 = buffers[1], hidden2 = buffers[2];
+
+        //the player to move's half first.
+        short[] us = accumulator[pos.turn == 1 ? 0 : 1], them = accumulator[pos.turn == 1 ? 1 : 0];
+        for(int i = 0; i < hidden; i++)
+        {
+            input[i] = clip(us[i]);
+            input[hidden + i] = clip(them[i]);
+        }
+        for(int j = 0; j < layer2; j++)
+            hidden1[j] = clip(bias1[j] + KERNELS.dot(input, weights1, j * 2 * hidden, 2 * hidden) >> WEIGHT_SHIFT);
+        for(int j = 0; j < layer3; j++)
+            hidden2[j] = clip(bias2[j] + KERNELS.dot(hidden1, weights2, j * layer2, layer2) >> WEIGHT_SHIFT);
+        int output = bias3 + KERNELS.dot(hidden2, weights3, 0, layer3);
+        //the output is for the player to move.
+        return -output / OUTPUT_SCALE;
+    }
+
+    /** Recomputes one side's accumulator from all the pieces. */
+    void refresh(short[] accumulator, int perspective, List<Piece> pieces)
+    {
+        System.arraycopy(inputBias, 0, accumulator, 0, hidden);
+        int king = kingSquare(perspective, pieces);
+        for(Piece piece : pieces)
+            if(!(piece instanceof King))
+                KERNELS.add(accumulator, inputWeights, feature(perspective, king, piece) * hidden);
+    }
+
+    void add(short[] accumulator, int perspective, int king, Piece piece)
+    {
+        KERNELS.add(accumulator, inputWeights, feature(perspective, king, piece) * hidden);
+    }
+
+    void remove(short[] accumulator, int perspective, int king, Piece piece)
+    {
+        KERNELS.subtract(accumulator, inputWeights, feature(perspective, king, piece) * hidden);
+    }
+
+    /**
+     * The input for a piece, seen from the given side with its King on the
+     * given square. Black sees the board flipped, so both sides' inputs mean
+     * the same.
+     */
+    private static int feature(int perspective, int king, Piece piece)
+    {
+        int square = (piece.rank << 3) + piece.file;
+        if(perspective == -1)
+        {
+            square ^= 56;
+            king ^= 56;
+        }
+        //Queen to Pawn, own then enemy.
+        int kind = (piece.symbol - '♔') % 6 - 1 + (piece.colour == perspective ? 0 : 5);
+        return (king * 10 + kind) * 64 + square;
+    }
+
+    static int kingSquare(int colour, List<Piece> pieces)
+    {
+        for(Piece piece : pieces)
+            if(piece instanceof King  &&  piece.colour == colour)
+                return (piece.rank << 3) + piece.file;
+        throw new IllegalStateException("no King");
+    }
+
+    private static short clip(int value)
+    {
+        return (short) Math.max(0, Math.min(ONE, value));
+    }
+
+    /** Which implementation of the arithmetic is in use. */
+    public static String kernels()
+    {
+        return KERNELS.getClass().getSimpleName();
+    }
+
+    /** The Vector API ones if the module is there, the plain ones if not. */
+    private static Kernels loadKernels()
+    {
+        try
+        {
+            return (Kernels) Class.forName("chess.NnueVectorKernels").getDeclaredConstructor().newInstance();
+        }
+        catch(ReflectiveOperationException | LinkageError e)
+        {
+            return new ScalarKernels();
+        }
+    }
+
+    private static short[] readShorts(DataInputStream in, int length) throws IOException
+    {
+        short[] values = new short[length];
+        for(int i = 0; i < length; i++)
+            values[i] = in.readShort();
+        return values;
+    }
+    private static short[] readBytes(DataInputStream in, int length) throws IOException
+    {
+        short[] values = new short[length];
+        for(int i = 0; i < length; i++)
+            values[i] = in.readByte();
+        return values;
+    }
+    private static int[] readInts(DataInputStream in, int length) throws IOException
+    {
+        int[] values = new int[length];
+        for(int i = 0; i < length; i++)
+            values[i] = in.readInt();
+        return values;
+    }
+    private static void writeLayer(DataOutputStream out, short[] weights, int[] biases) throws IOException
+    {
+        for(short weight : weights)
+            out.writeByte(weight);
+        for(int bias : biases)
+            out.writeInt(bias);
+    }
+
+    /** The arithmetic of the network, with or without the Vector API. */
+    interface Kernels
+    {
+        /** Adds the {@code accumulator.length} weights from {@code offset} on. */
+        void add(short[] accumulator, short[] weights, int offset);
+        void subtract(short[] accumulator, short[] weights, int offset);
+        /**
+         * The dot product of the input with {@code length} weights from
+         * {@code offset} on. Each product has to fit in 16 bits.
+         */
+        int dot(short[] input, short[] weights, int offset, int length);
+    }
+
+    static final class ScalarKernels implements Kernels
+    {
+        @Override
+        public void add(short[] accumulator, short[] weights, int offset)
+        {
+            for(int i = 0; i < accumulator.length; i++)
+                accumulator[i] += weights[offset + i];
+        }
+        @Override
+        public void subtract(short[] accumulator, short[] weights, int offset)
+        {
+            for(int i = 0; i < accumulator.length; i++)
+                accumulator[i] -= weights[offset + i];
+        }
+        @Override
+        public int dot(short[] input, short[] weights, int offset, int length)
+        {
+            int sum = 0;
+            for(int i = 0; i < length; i++)
+                sum += input[i] * weights[offset + i];
+            return sum;
+        }
+    }
+}
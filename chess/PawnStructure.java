@@ -0,0 +1,148 @@
+package chess;
+
+import pieces.Bitboards;
+import pieces.Pawn;
+import pieces.Piece;
+import java.util.ArrayList;
+
+/**
+ * What the Pawns alone decide about a position: the score for doubled,
+ * isolated and backward Pawns, and where the Pawns and the files without
+ * Pawns are.
+ * <p>
+ * The Pawns move far less often than the other pieces, so most positions a
+ * search meets share their Pawns with one seen just before. Structures are
+ * therefore kept in a table indexed by {@link Position#pawnKey} and worked
+ * out only on a miss. The table is shared by all search threads: an entry is
+ * immutable and replaced as a whole, so a reader sees either the old one or
+ * the new one.
+ * </p>
+ * Squares are bits {@code (rank << 3) + file} of a {@code long}, files bits
+ * 0 to 7 of an {@code int}.
+ */
+public final class PawnStructure
+{
+    private static final PawnStructure[] TABLE = new PawnStructure[1 << 14];
+
+    /** The weak Pawns counted, in the order of their weights. */
+    private static final Weight[] WEAKNESSES = {Weight.DOUBLED_PAWN, Weight.ISOLATED_PAWN,
+        Weight.ISOLATED_EDGE_PAWN, Weight.BACKWARD_PAWN, Weight.BACKWARD_EDGE_PAWN};
+
+    private final long key;
+    /**
+     * How many Pawns of each weakness each player has, White's then Black's:
+     * counts rather than a score, so that entries stay right when the
+     * {@link Weight}s change.
+     */
+    private final int[] weaknesses = new int[2 * WEAKNESSES.length];
+    private final long whitePawns, blackPawns;
+    private final int whiteOpen, blackOpen;
+
+    private PawnStructure(long key, ArrayList<Pawn> whites, ArrayList<Pawn> blacks)
+    {
+        this.key = key;
+        whitePawns = squares(whites);
+        blackPawns = squares(blacks);
+        count(whites, whitePawns, 0);
+        count(blacks, blackPawns, WEAKNESSES.length);
+        whiteOpen = openFiles(whitePawns);
+        blackOpen = openFiles(blackPawns);
+    }
+
+    /**
+     * The structure of the given position's Pawns, from the table if they
+     * have been seen before.
+     */
+    static PawnStructure of(Position pos)
+    {
+        int index = (int) pos.pawnKey & (TABLE.length - 1);
+        PawnStructure entry = TABLE[index];
+        if(entry != null  &&  entry.key == pos.pawnKey)
+            return entry;
+
+        ArrayList<Pawn> whites = new ArrayList<>();
+        ArrayList<Pawn> blacks = new ArrayList<>();
+        for(Piece piece : pos.pieces)
+            if(piece instanceof Pawn)
+                (piece.colour == 1 ? whites : blacks).add((Pawn) piece);
+        entry = new PawnStructure(pos.pawnKey, whites, blacks);
+        TABLE[index] = entry;
+        return entry;
+    }
+
+    /**
+     * Counts one player's weak Pawns.
+     * @param squares The squares of the same Pawns.
+     * @param offset Where the player's counts start in {@link #weaknesses}.
+     */
+    private void count(ArrayList<Pawn> pawns, long squares, int offset)
+    {
+        for(Pawn pawn : pawns) {
+            if(pawn.isDoubled(squares)) {
+                weaknesses[offset]++;
+            }
+            if(pawn.isIsolated(squares)) {
+                weaknesses[offset + (pawn.file % 7 == 0 ? 2 : 1)]++;
+            }
+            else if(pawn.isBackward(squares)) {
+                weaknesses[offset + (pawn.file % 7 == 0 ? 4 : 3)]++;
+            }
+        }
+    }
+
+    /** Black's penalties minus White's, in Pawns: the score for White. */
+    float score()
+    {
+        float score = 0f;
+        for(int i = 0; i < WEAKNESSES.length; i++)
+            score += (weaknesses[WEAKNESSES.length + i] - weaknesses[i]) * WEAKNESSES[i].value();
+        return score;
+    }
+
+    private static long squares(ArrayList<Pawn> pawns)
+    {
+        long squares = 0;
+        for(Pawn pawn : pawns)
+            squares |= Bitboards.square(pawn.rank, pawn.file);
+        return squares;
+    }
+
+    private static int openFiles(long pawns)
+    {
+        int files = 0;
+        for(int file = 0; file < 8; file++)
+            if((pawns & Bitboards.FILES[file]) == 0)
+                files |= 1 << file;
+        return files;
+    }
+
+    /** The squares of the given player's Pawns. */
+    public long pawns(int colour)
+    {
+        return colour == 1 ? whitePawns : blackPawns;
+    }
+
+    /** The files the given player has no Pawn on. */
+    public int openFiles(int colour)
+    {
+        return colour == 1 ? whiteOpen : blackOpen;
+    }
+
+    /** Whether the given player has no Pawn on a file. */
+    public boolean isOpen(int colour, int file)
+    {
+        return (openFiles(colour) >>> file & 1) != 0;
+    }
+
+    /** How many Pawns the given player has on a file. */
+    public int pawnsOnFile(int colour, int file)
+    {
+        return Long.bitCount(pawns(colour) & Bitboards.FILES[file]);
+    }
+
+    /** How many Pawns the given player has on a rank. */
+    public int pawnsOnRank(int colour, int rank)
+    {
+        return Long.bitCount(pawns(colour) & Bitboards.RANKS[rank]);
+    }
+}
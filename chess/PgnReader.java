@@ -0,0 +1,368 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the games of a PGN file one at a time, for databases too large to
+ * hold in memory.
+ * <p>
+ * The file is read as bytes through a buffer of its own and only the tag
+ * values are made into strings. Moves are decoded by {@link San} straight
+ * from the buffer and replayed as they are read. Comments, variations,
+ * numeric annotation glyphs and escaped lines are skipped. Gzipped files are
+ * recognised by their first bytes and uncompressed on the fly.
+ * </p>
+ * A game whose moves cannot all be read keeps those up to the first bad one,
+ * with {@link Game#error} saying what went wrong.
+ */
+public final class PgnReader implements Closeable
+{
+    /** A game: its tags, moves and the positions they lead to. */
+    public static final class Game
+    {
+        /** The tag pairs, in the order of the file. */
+        public final Map<String, String> tags;
+        /** The moves as {@link Move#packed()}. */
+        public final int[] moves;
+        /**
+         * The position before each move, then the one after the last, so one
+         * more than there are moves.
+         */
+        public final List<Position> positions;
+        /** "1-0", "0-1", "1/2-1/2" or "*". */
+        public final String result;
+        /** Why the moves stop short, or null if they do not. */
+        public final String error;
+
+        Game(Map<String, String> tags, int[] moves, List<Position> positions, String result, String error)
+        {
+            this.tags = Collections.unmodifiableMap(tags);
+            this.moves = moves;
+            this.positions = Collections.unmodifiableList(positions);
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    private static final int BUFFER = 1 << 16;
+    private static final String[] RESULTS = {"1-0", "0-1", "1/2-1/2", "*"};
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER];
+    private int next, limit;
+    /** The token being read, and a view of it for {@link San}. */
+    private final byte[] token = new byte[256];
+    private int tokenLength;
+    private final CharSequence tokenText = new CharSequence()
+    {
+        @Override
+        public int length() { return tokenLength; }
+        @Override
+        public char charAt(int index) { return (char) (token[index] & 0xff); }
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new String(token, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+        @Override
+        public String toString() { return new String(token, 0, tokenLength, StandardCharsets.ISO_8859_1); }
+    };
+
+    public PgnReader(InputStream in)
+    {
+        this.in = in;
+    }
+
+    /** Opens a PGN file, gzipped or not. */
+    public static PgnReader open(Path file) throws IOException
+    {
+        PushbackInputStream in = new PushbackInputStream(Files.newInputStream(file), 2);
+        byte[] magic = new byte[2];
+        int read = in.readNBytes(magic, 0, 2);
+        in.unread(magic, 0, read);
+        boolean gzip = read == 2  &&  (magic[0] & 0xff) == 0x1f  &&  (magic[1] & 0xff) == 0x8b;
+        return new PgnReader(gzip ? new GZIPInputStream(in, BUFFER) : in);
+    }
+
+    /**
+     * Reads the next game.
+     * @return The game, or null at the end of the file.
+     */
+    public Game next() throws IOException
+    {
+        Map<String, String> tags = new LinkedHashMap<>();
+        //the tags, up to the first thing that is not one.
+        int c;
+        while((c = skipSpace()) == '[')
+            readTag(tags);
+        if(c < 0  &&  tags.isEmpty())
+            return null;
+
+        Position pos;
+        try {
+            String fen = tags.get("FEN");
+            pos = fen == null ? new Chess().position : Position.fromFen(fen);
+        }
+        catch(IllegalArgumentException e) {
+            skipMoves();
+            return new Game(tags, new int[0], new ArrayList<>(), tags.getOrDefault("Result", "*"), e.getMessage());
+        }
+        ArrayList<Position> positions = new ArrayList<>(128);
+        positions.add(pos);
+        int[] moves = new int[128];
+        int count = 0;
+        String result = null, error = null;
+
+        while(result == null  &&  (c = skipSpace()) >= 0)
+        {
+            if(c == '[')
+                break;
+            if(c == '{'  ||  c == ';'  ||  c == '('  ||  c == '%') {
+                skipComment(c);
+                continue;
+            }
+            readToken();
+            int start = 0;
+            //a move number, maybe run into the move: "12.", "12...", "12.e4".
+            while(start < tokenLength  &&  token[start] >= '0'  &&  token[start] <= '9')
+                start++;
+            if(start < tokenLength  &&  token[start] == '.') {
+                while(start < tokenLength  &&  token[start] == '.')
+                    start++;
+            }
+            else
+                start = 0;
+            if(start == tokenLength  ||  token[start] == '$'  ||  isToken("e.p."))
+                continue;
+            for(String r : RESULTS)
+                if(isToken(r))
+                    result = r;
+            if(result != null  ||  error != null)
+                continue;
+
+            int move = San.decode(pos, tokenText, start, tokenLength);
+            if(move == 0) {
+                error = "bad move " + tokenText + " after " + count + " plies";
+                continue;
+            }
+            if(count == moves.length)
+                moves = Arrays.copyOf(moves, count * 2);
+            moves[count++] = move;
+            pos = pos.move(new Move(move));
+            positions.add(pos);
+        }
+        if(result == null)
+            result = tags.getOrDefault("Result", "*");
+        return new Game(tags, Arrays.copyOf(moves, count), positions, result, error);
+    }
+
+    /**
+     * The games from here on, read as the stream is consumed. Read errors
+     * are thrown as {@link UncheckedIOException}.
+     */
+    public Stream<Game> games()
+    {
+        Iterator<Game> iterator = new Iterator<Game>()
+        {
+            private Game game;
+
+            @Override
+            public boolean hasNext()
+            {
+                if(game == null) {
+                    try {
+                        game = PgnReader.this.next();
+                    }
+                    catch(IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return game != null;
+            }
+
+            @Override
+            public Game next()
+            {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                Game next = game;
+                game = null;
+                return next;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /** Every position of every game from here on, each game's in order. */
+    public Stream<Position> positions()
+    {
+        return games().flatMap(game -> game.positions.stream());
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+
+    /** {@code [Name "value"]}. */
+    private void readTag(Map<String, String> tags) throws IOException
+    {
+        int c;
+        take();
+        tokenLength = 0;
+        while((c = take()) >= 0  &&  c != ' '  &&  c != '"'  &&  c != ']')
+            append(c);
+        String name = tokenText.toString();
+        while(c == ' ')
+            c = take();
+        if(c != '"') {
+            skipLine(c);
+            return;
+        }
+        //the value may be UTF-8, and quotes and backslashes are escaped.
+        byte[] value = new byte[64];
+        int length = 0;
+        while((c = take()) >= 0  &&  c != '"'  &&  c != '\n')
+        {
+            if(c == '\\')
+                c = take();
+            if(length == value.length)
+                value = Arrays.copyOf(value, length * 2);
+            value[length++] = (byte) c;
+        }
+        tags.put(name, new String(value, 0, length, StandardCharsets.UTF_8));
+        skipLine(c);
+    }
+
+    /** Skips a game whose moves cannot be read, up to its result or the next tags. */
+    private void skipMoves() throws IOException
+    {
+        int c;
+        while((c = skipSpace()) >= 0  &&  c != '[')
+        {
+            if(c == '{'  ||  c == ';'  ||  c == '('  ||  c == '%') {
+                skipComment(c);
+                continue;
+            }
+            readToken();
+            for(String r : RESULTS)
+                if(isToken(r))
+                    return;
+        }
+    }
+
+    /** Skips a comment, a line escaped with '%' or a variation, however deeply nested. */
+    private void skipComment(int c) throws IOException
+    {
+        take();
+        if(c == '{') {
+            while((c = take()) >= 0  &&  c != '}') {}
+        }
+        else if(c == ';'  ||  c == '%')
+            skipLine(c);
+        else {
+            int depth = 1;
+            while(depth > 0  &&  (c = take()) >= 0) {
+                if(c == '(')
+                    depth++;
+                else if(c == ')')
+                    depth--;
+                else if(c == '{'  ||  c == ';') {
+                    next--;
+                    skipComment(c);
+                }
+            }
+        }
+    }
+
+    private void skipLine(int c) throws IOException
+    {
+        while(c >= 0  &&  c != '\n')
+            c = take();
+    }
+
+    /**
+     * Reads up to the next space, comment or variation. Overlong tokens are
+     * cut short. A stray ')', which ends no variation, is skipped and leaves
+     * the token empty, so that the reader always moves on.
+     */
+    private void readToken() throws IOException
+    {
+        tokenLength = 0;
+        int c;
+        while((c = peek()) >= 0  &&  c > ' '  &&  c != '{'  &&  c != '('  &&  c != ')'  &&  c != ';')
+            append(take());
+        if(tokenLength == 0)
+            take();
+    }
+
+    private void append(int c)
+    {
+        if(tokenLength < token.length)
+            token[tokenLength++] = (byte) c;
+    }
+
+    private boolean isToken(String text)
+    {
+        if(tokenLength != text.length())
+            return false;
+        for(int i = 0; i < tokenLength; i++)
+            if(token[i] != text.charAt(i))
+                return false;
+        return true;
+    }
+
+    /** Skips white space. @return The next byte, still to be read, or -1 at the end. */
+    private int skipSpace() throws IOException
+    {
+        int c;
+        while((c = peek()) >= 0  &&  c <= ' ')
+            next++;
+        return c;
+    }
+
+    private int peek() throws IOException
+    {
+        if(next == limit  &&  !fill())
+            return -1;
+        return buffer[next] & 0xff;
+    }
+
+    private int take() throws IOException
+    {
+        if(next == limit  &&  !fill())
+            return -1;
+        return buffer[next++] & 0xff;
+    }
+
+    private boolean fill() throws IOException
+    {
+        int read = in.read(buffer, 0, BUFFER);
+        if(read <= 0)
+            return false;
+        next = 0;
+        limit = read;
+        return true;
+    }
+}
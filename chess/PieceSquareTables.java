@@ -0,0 +1,109 @@
+package chess;
+
+import pieces.Piece;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Positional scores of every piece on every square, one table for the
+ * middlegame and one for the endgame, read from the resource {@code pst.txt}
+ * so that they can be retuned without recompiling.
+ * <p>
+ * A position's score is tapered between the two by its {@link Material#phase}:
+ * the material left on the board, beside Pawns and Kings, counted as 1 for a
+ * minor piece, 2 for a Rook and 4 for a Queen, up to {@link #MAX_PHASE} for
+ * the full set.
+ * </p>
+ */
+final class PieceSquareTables
+{
+    static final int MAX_PHASE = 24;
+
+    /**
+     * In hundredths of a Pawn, so that sums kept up move by move stay exact.
+     * Indexed by {@code symbol - '♔'} and {@code (rank << 3) + file}.
+     */
+    private static final int[][] MG = new int[12][64];
+    private static final int[][] EG = new int[12][64];
+    /** The headings of the tables in the file, in the order of the symbols. */
+    private static final String[] NAMES = {"king", "queen", "rook", "bishop", "knight", "pawn"};
+
+    static
+    {
+        try(InputStream in = PieceSquareTables.class.getResourceAsStream("pst.txt"))
+        {
+            if(in == null)
+                throw new IllegalStateException("pst.txt not found");
+            load(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private PieceSquareTables() {}
+
+    /**
+     * Reads tables headed by a piece name and "mg" or "eg", each eight rows of
+     * eight numbers with the eighth rank first. Lines starting with '#' are
+     * comments.
+     */
+    private static void load(BufferedReader reader) throws IOException
+    {
+        int[][] table = null;
+        int type = -1, row = 0;
+        String line;
+        while((line = reader.readLine()) != null)
+        {
+            line = line.trim();
+            if(line.isEmpty()  ||  line.startsWith("#"))
+                continue;
+            String[] words = line.split("\\s+");
+            if(Character.isLetter(words[0].charAt(0)))
+            {
+                type = Arrays.asList(NAMES).indexOf(words[0]);
+                if(type < 0  ||  words.length != 2  ||  !words[1].matches("mg|eg"))
+                    throw new IllegalStateException("pst.txt: bad heading " + line);
+                table = words[1].equals("mg") ? MG : EG;
+                row = 0;
+                continue;
+            }
+            if(table == null  ||  row == 8  ||  words.length != 8)
+                throw new IllegalStateException("pst.txt: bad row " + line);
+            int rank = 7 - row++;
+            for(int file = 0; file < 8; file++)
+            {
+                int score = Integer.parseInt(words[file]);
+                //Black's table is White's seen from the other side.
+                table[type][(rank << 3) + file] = score;
+                table[type + 6][((7 - rank) << 3) + file] = score;
+            }
+        }
+    }
+
+    static int mg(Piece piece)
+    {
+        return MG[piece.symbol - '♔'][(piece.rank << 3) + piece.file];
+    }
+    static int eg(Piece piece)
+    {
+        return EG[piece.symbol - '♔'][(piece.rank << 3) + piece.file];
+    }
+
+    /**
+     * Mixes middlegame and endgame scores by the phase of the game.
+     * @param phase The {@link Material#phase} of the position.
+     * @return The score in Pawns.
+     */
+    static float taper(int mg, int eg, int phase)
+    {
+        phase = Math.min(phase, MAX_PHASE);
+        return (mg * phase + eg * (MAX_PHASE - phase)) / (MAX_PHASE * 100f);
+    }
+}
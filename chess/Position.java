@@ -2,6 +2,7 @@ package chess;
 
 import pieces.*;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Position
 {
@@ -14,20 +15,93 @@ public class Position
     public final boolean shortCastle;
     public final boolean longCastle;
     public final Pawn doubleMover;
+    /** The Zobrist hash of this position. */
+    public final long key;
+    /** The Zobrist hash of the Pawns alone, for {@link PawnStructure}. */
+    public final long pawnKey;
+    /** Plies since the last capture or Pawn move, for the Fifty Move Rule. */
+    public final int halfmoveClock;
+    /** Starts at 1 and goes up after each of Black's moves. */
+    public final int fullmoveNumber;
+    /**
+     * The position this one arose from, unless it arose by a capture or a
+     * Pawn move: the positions it could be a repetition of.
+     */
+    private final Position previous;
     private final boolean enPassantPossible;
+    /** The King of the player who just moved. */
+    private King enemyKing;
+    /**
+     * By piece type (see {@link #type}), the squares from which a piece of
+     * the player to move would check the enemy King; worked out on the first
+     * {@link #givesCheck} or move from this position.
+     */
+    private long[] checkSquares;
+    /**
+     * The player to move's pieces that alone stand between the enemy King
+     * and one of the player's sliding pieces: moving one off that line
+     * uncovers a check.
+     */
+    private long blockers;
+    /**
+     * By square, the squares attacked by the piece on it, then by colour
+     * (White's first) the squares either player's pieces and Pawns attack and
+     * the squares of the player's pieces; worked out once, for move
+     * generation and the evaluation both, see {@link #attacks}.
+     */
+    private long[] attackMaps;
+    private static final int ATTACKED = 64, PAWN_ATTACKED = 66, OCCUPIED = 68;
+    /** Material and piece-square totals, kept up move by move. */
+    private final Accumulator accumulator;
+    private PawnStructure pawnStructure;
     private Float evaluation = null;
+    /**
+     * How far the piece-specific terms of the evaluation are taken to move
+     * the score either way, in Pawns. This is not an upper bound: one from
+     * the weights, every piece at full mobility and hanging and every enemy
+     * piece on the King, would come to some 24 Pawns and leave nothing to
+     * skip. It is measured instead, by {@code java chess.Bench lazy}: over
+     * the 35,241 positions of 200 random games it applies to, the terms moved
+     * the score at most 4.8 Pawns, and by more than 3.7 in one position in a
+     * thousand. To be measured again when the weights or the terms change.
+     */
+    static final float LAZY_MARGIN = 5f;
+    private static final LongAdder LAZY_EXITS = new LongAdder();
+    /** The hand-written evaluation, the default {@link Evaluator}. */
+    public static final Evaluator CLASSIC = Position::classicEval;
+    private static volatile Evaluator evaluator = CLASSIC;
+    private static volatile Nnue network;
     private Boolean stuck;
     
     Position(ArrayList<Piece> pieces, int turn, Pawn doubleMover)
+    {
+        this(pieces, turn, doubleMover, null, 0, 1, null, Accumulator.of(pieces));
+    }
+    /**
+     * @param checkers The pieces checking the player to move, if already
+     *                 known from the move played; or null to look for them.
+     * @param accumulator The totals over {@code pieces}.
+     */
+    private Position(ArrayList<Piece> pieces, int turn, Pawn doubleMover, Position previous, int halfmoveClock,
+                     int fullmoveNumber, ArrayList<Piece> checkers, Accumulator accumulator)
     {
         this.pieces = new ArrayList<>(pieces.size());
         this.turn = turn;
         this.doubleMover = doubleMover;
+        this.previous = previous;
+        this.halfmoveClock = halfmoveClock;
+        this.fullmoveNumber = fullmoveNumber;
+        this.accumulator = accumulator;
         for(Piece piece : pieces) {
             this.pieces.add(piece);
             board[piece.rank][piece.file] = piece;
-            if(piece instanceof King  &&  piece.colour == turn)
-                king = (King)piece;
+            if(piece instanceof King)
+            {
+                if(piece.colour == turn)
+                    king = (King)piece;
+                else
+                    enemyKing = (King)piece;
+            }
         }
         
         if(doubleMover == null)
@@ -41,12 +115,27 @@ public class Position
                 ||  (pawnSuspect2 instanceof Pawn  &&  pawnSuspect2.colour == turn);
         }
         
-        CHECKERS = attackers(king);
+        CHECKERS = checkers != null ? checkers : attackers(king);
         CHECK = !CHECKERS.isEmpty();
         
         shortCastle = king.canCastleShort(this);
         longCastle = king.canCastleLong(this);
         
+        key = Zobrist.key(this, enPassantPossible);
+        pawnKey = Zobrist.pawnKey(this);
+    }
+
+    /**
+     * The same position, with none of the parts worked out on demand (attack
+     * maps, check squares, evaluation, Pawn structure and so on) filled in.
+     * Those are written without any locking, so a position is only safe to
+     * use from one thread; a search on another thread starts from a copy.
+     * The positions before it are shared, as only their keys are read.
+     */
+    Position copy()
+    {
+        return new Position(pieces, turn, doubleMover, previous, halfmoveClock, fullmoveNumber,
+                            new ArrayList<>(CHECKERS), accumulator.copy());
     }
 
     public Piece nearestPieceFrom(int rank, int file, int rJump, int fJump)
@@ -95,6 +184,188 @@ public class Position
     }
     
     
+    /**
+     * Checks whether a packed move (see {@link Move#packed()}) could be
+     * played in this position, going by how the pieces move, without
+     * generating any other moves. Castling has to be allowed by
+     * {@link #shortCastle} or {@link #longCastle}, a Pawn reaching the last
+     * rank has to name its promotion and no other move may.
+     * Note: Whether the move leaves the player's own King in check is not
+     * taken into account, but for castling.
+     * @param packed A packed move, such as one from a hash table.
+     * @return Whether the move is pseudo-legal.
+     */
+    public boolean isPseudoLegal(int packed)
+    {
+        if(packed == 0)
+            return false;
+        int rank = packed >> 6 & 0b111;
+        int file = packed >> 3 & 0b111;
+        int promotion = packed & 0b111;
+        Piece mover = board[packed >> 12 & 0b111][packed >> 9 & 0b111];
+        if(mover == null  ||  mover.colour != turn)
+            return false;
+        Piece target = board[rank][file];
+        if(target != null  &&  (target.colour == turn  ||  target instanceof King))
+            return false;
+
+        boolean lastRank = mover instanceof Pawn  &&  rank == (turn == 1 ? 7 : 0);
+        if(lastRank != (promotion != 0)  ||  promotion > 4)
+            return false;
+
+        if(mover instanceof King  &&  rank == mover.rank  &&  Math.abs(file - mover.file) == 2)
+            return file == 6 ? shortCastle : longCastle;
+
+        if(mover instanceof Pawn)
+        {
+            if(file == mover.file)
+            {
+                if(target != null)
+                    return false;
+                if(rank == mover.rank + turn)
+                    return true;
+                return mover.relativeRank() == 1  &&  rank == mover.rank + 2 * turn
+                    &&  board[mover.rank + turn][file] == null;
+            }
+            //en passant...
+            if(target == null)
+                return doubleMover != null  &&  doubleMover.rank == mover.rank
+                    &&  doubleMover.file == file  &&  rank == mover.rank + turn
+                    &&  Math.abs(file - mover.file) == 1;
+        }
+        return mover.isEyeing(this, rank, file);
+    }
+
+    /**
+     * Checks whether a packed move (see {@link Move#packed()}) is legal in
+     * this position, without generating any other moves. On top of
+     * {@link #isPseudoLegal}, this checks that the move gets out of check,
+     * that a pinned piece stays on its line and that the King does not step
+     * into check. The packed move is read as it is; only taking en passant,
+     * which is played out, and a pinned piece's line are allocated.
+     * @param packed A packed move, such as one from a hash table.
+     * @return Whether the move is legal.
+     */
+    public boolean isLegal(int packed)
+    {
+        if(!isPseudoLegal(packed))
+            return false;
+        int rank = packed >> 6 & 0b111;
+        int file = packed >> 3 & 0b111;
+        Piece mover = board[packed >> 12 & 0b111][packed >> 9 & 0b111];
+
+        if(mover instanceof King)
+        {
+            //castling is fully checked already.
+            if(Math.abs(file - mover.file) == 2)
+                return true;
+            //the King cannot step away from a checker along its line,
+            //though the King itself hides that square from underAttack.
+            for(Piece checker : CHECKERS)
+                if(checker.isFreelyMoving()
+                        &&  rank - mover.rank == (int) Math.signum(mover.rank - checker.rank)
+                        &&  file - mover.file == (int) Math.signum(mover.file - checker.file))
+                    return false;
+            return !underAttack(rank, file);
+        }
+
+        //taking en passant takes two pieces off the board at once; let the
+        //position after the move tell.
+        if(mover instanceof Pawn  &&  file != mover.file  &&  board[rank][file] == null)
+        {
+            Position next = move(new Move(packed));
+            for(Piece piece : next.pieces)
+                if(piece instanceof King  &&  piece.colour == turn)
+                    return next.attackers(piece).isEmpty();
+        }
+
+        if(CHECKERS.size() > 1)
+            return false;
+        int[] pinned = mover.pinned(this);
+        if(pinned != null)
+        {
+            if(CHECK)
+                return false;
+            //stays on the line from the King through the pinned piece.
+            return (rank - king.rank) * pinned[1] == (file - king.file) * pinned[0];
+        }
+        if(CHECK)
+        {
+            Piece checker = CHECKERS.get(0);
+            if(rank == checker.rank  &&  file == checker.file)
+                return true;
+            return checker.isFreelyMoving()
+                &&  (Bitboards.between(king.rank, king.file, checker.rank, checker.file) & Bitboards.square(rank, file)) != 0;
+        }
+        return true;
+    }
+
+    /**
+     * Static exchange evaluation: what the move wins, in pawns, if both
+     * players go on capturing on its square with their least valuable piece
+     * for as long as that pays. Pieces behind others on a line join in once
+     * those have gone. A Pawn promoting to a Queen counts as one from then
+     * on. Note: Pins, and promotions further on, are not taken into account.
+     * @param move A legal move.
+     * @return The material won, negative if the move loses some.
+     */
+    float see(Move move)
+    {
+        int rank = move.rank(), file = move.file();
+        Piece mover = board[move.originRank()][move.originFile()];
+        Piece victim = board[rank][file];
+        long target = Bitboards.square(rank, file);
+        long occupied = (occupied(1) | occupied(-1)) & ~Bitboards.square(mover.rank, mover.file);
+        float[] gain = new float[33];
+        if(victim != null)
+            gain[0] = exchangeValue(victim);
+        else if(mover instanceof Pawn  &&  file != mover.file) {
+            gain[0] = exchangeValue(doubleMover);
+            occupied &= ~Bitboards.square(doubleMover.rank, doubleMover.file);
+        }
+        float onSquare = exchangeValue(mover);
+        if(move.promotion() == 1) {
+            gain[0] += 9 - onSquare;
+            onSquare = 9;
+        }
+        int colour = -turn, d = 0;
+        Piece attacker;
+        while((attacker = leastValuableAttacker(target, colour, occupied)) != null)
+        {
+            d++;
+            gain[d] = onSquare - gain[d - 1];
+            //neither side would go on.
+            if(Math.max(-gain[d - 1], gain[d]) < 0)
+                break;
+            occupied &= ~Bitboards.square(attacker.rank, attacker.file);
+            onSquare = exchangeValue(attacker);
+            colour = -colour;
+        }
+        while(d > 0) {
+            gain[d - 1] = -Math.max(-gain[d - 1], gain[d]);
+            d--;
+        }
+        return gain[0];
+    }
+
+    /** The given player's least valuable piece still on the board that attacks the target square. */
+    private Piece leastValuableAttacker(long target, int colour, long occupied)
+    {
+        Piece least = null;
+        for(Piece piece : pieces)
+            if(piece.colour == colour  &&  (occupied & Bitboards.square(piece.rank, piece.file)) != 0
+                    &&  (Bitboards.attacks(piece, occupied) & target) != 0
+                    &&  (least == null  ||  exchangeValue(piece) < exchangeValue(least)))
+                least = piece;
+        return least;
+    }
+
+    /** A piece's value in an exchange; the King's is high enough that losing it never pays. */
+    private static float exchangeValue(Piece piece)
+    {
+        return piece instanceof King ? 100 : piece.value();
+    }
+
     /**
      * Checks if any piece of the player to move has any legal move.
      * Note: Does not check for stalemate. Returns true even in the
@@ -117,6 +388,22 @@ public class Position
         return stuck;
     }
 
+    /**
+     * Counts the earlier occurrences of this position, by key. Only the
+     * positions since the last capture or Pawn move are looked at, and of
+     * those only the ones with the same player to move.
+     * @return The number of times this position occurred before.
+     */
+    public int repetitions()
+    {
+        int repetitions = 0;
+        Position pos = previous;
+        for(int ply = 1; pos != null; ply++, pos = pos.previous)
+            if(ply % 2 == 0  &&  pos.key == key)
+                repetitions++;
+        return repetitions;
+    }
+
     /**
      * Checks for draw by insufficient material.
      * @return Whether either player can checkmate the other
@@ -124,53 +411,7 @@ public class Position
      */
     public boolean winnable()
     {
-        //just the two kings. No winning.
-        if(pieces.size() < 3) {
-            return false;
-        }
-        
-        //at least one side has at least 2 pieces (other than king).
-        //Therefore, win possible.
-        if(pieces.size() > 4) {
-            return true;
-        }
-
-        Piece whitePiece = null, blackPiece = null;
-        for(Piece piece : pieces) {
-            if(piece instanceof Pawn  ||  piece instanceof Rook  ||  piece instanceof Queen) {
-                return true;
-            }
-            if(piece instanceof Knight  ||  piece instanceof Bishop) {
-                if(piece.colour == 1) {
-                    whitePiece = piece;
-                }
-                else {
-                    blackPiece = piece;
-                }
-            }
-        } //only minor pieces (N or B) left if made it to this point.
-
-        //only one minor piece cannot win.
-        if(pieces.size() == 3) {
-            return false;
-        } //exactly 4 pieces left if made it to this point.
-
-        //one still remains null means the other side has 2 minors. Win-win.
-        //not really necessary to check, but helps keep logic.
-        if(whitePiece == null  ||  blackPiece == null) {
-            return true;
-        }
-
-        //the very special case of two bishops not on the same colour.
-        //In |kbB5|8|K7|8|8|8|8|8|, for instance, Bb7# is checkmate.
-        //When the bishops are on the same colour, no checkmate possible.
-        if(whitePiece instanceof Bishop  &&  blackPiece instanceof Bishop) {
-            int whiteBishopSquareColour = (whitePiece.rank + whitePiece.file) % 2;
-            int blackBishopSquareColour = (blackPiece.rank + blackPiece.file) % 2;
-            return whiteBishopSquareColour != blackBishopSquareColour;
-        }
-        
-        return true;
+        return !Material.of(this).insufficient;
     }
 
     
@@ -220,6 +461,216 @@ public class Position
         return s;
     }
     
+    /** The letters of the pieces in FEN, in the order of their symbols from '♔'. */
+    private static final String FEN_PIECES = "KQRBNPkqrbnp";
+
+    /**
+     * Sets up a position from Forsyth-Edwards Notation: the board, the player
+     * to move, the castling rights, the en passant square and, if there, the
+     * halfmove clock and fullmove number. Anything after those, such as the
+     * operations of an EPD line, is left alone.
+     * <p>
+     * The castling rights decide which Kings and Rooks have not moved. The
+     * en passant square gives the Pawn that has just moved two squares.
+     * </p>
+     * The text is read in one pass, without splitting it, so that files of
+     * millions of positions load fast.
+     * @throws IllegalArgumentException if the FEN is not valid
+     */
+    public static Position fromFen(String fen)
+    {
+        char[] squares = new char[64];
+        int i = skipSpaces(fen, 0);
+        int rank = 7, file = 0;
+        for(; i < fen.length()  &&  fen.charAt(i) != ' '; i++)
+        {
+            char c = fen.charAt(i);
+            if(c == '/') {
+                if(file != 8  ||  rank == 0)
+                    throw new IllegalArgumentException("bad board in FEN: " + fen);
+                rank--;
+                file = 0;
+            }
+            else if(c >= '1'  &&  c <= '8')
+                file += c - '0';
+            else {
+                int type = FEN_PIECES.indexOf(c);
+                if(type < 0  ||  file > 7)
+                    throw new IllegalArgumentException("bad board in FEN: " + fen);
+                squares[(rank << 3) + file++] = (char) ('♔' + type);
+            }
+            if(file > 8)
+                throw new IllegalArgumentException("bad board in FEN: " + fen);
+        }
+        if(rank != 0  ||  file != 8)
+            throw new IllegalArgumentException("bad board in FEN: " + fen);
+
+        i = skipSpaces(fen, i);
+        if(i + 1 < fen.length()  &&  fen.charAt(i + 1) != ' '  ||  i == fen.length()
+                ||  fen.charAt(i) != 'w'  &&  fen.charAt(i) != 'b')
+            throw new IllegalArgumentException("bad player to move in FEN: " + fen);
+        int turn = fen.charAt(i++) == 'w' ? 1 : -1;
+
+        //castling rights, as the Rooks' squares that still have them.
+        i = skipSpaces(fen, i);
+        long castling = 0;
+        for(; i < fen.length()  &&  fen.charAt(i) != ' '; i++)
+        {
+            switch(fen.charAt(i)) {
+                case 'K': castling |= Bitboards.square(0, 7); break;
+                case 'Q': castling |= Bitboards.square(0, 0); break;
+                case 'k': castling |= Bitboards.square(7, 7); break;
+                case 'q': castling |= Bitboards.square(7, 0); break;
+                case '-': break;
+                default: throw new IllegalArgumentException("bad castling rights in FEN: " + fen);
+            }
+        }
+
+        i = skipSpaces(fen, i);
+        int enPassant = -1;
+        if(i < fen.length()  &&  fen.charAt(i) == '-')
+            i++;
+        else if(i + 1 < fen.length()  &&  fen.charAt(i) >= 'a'  &&  fen.charAt(i) <= 'h'
+                &&  fen.charAt(i + 1) == (turn == 1 ? '6' : '3')) {
+            //the square the Pawn passed over; it stands one further on.
+            enPassant = ((fen.charAt(i + 1) - '1' - turn) << 3) + fen.charAt(i) - 'a';
+            i += 2;
+        }
+        else
+            throw new IllegalArgumentException("bad en passant square in FEN: " + fen);
+
+        int halfmoveClock = 0, fullmoveNumber = 1;
+        i = skipSpaces(fen, i);
+        int halfmoves = number(fen, i);
+        if(halfmoves >= 0) {
+            halfmoveClock = halfmoves;
+            i = skipSpaces(fen, fen.indexOf(' ', i) < 0 ? fen.length() : fen.indexOf(' ', i));
+            int fullmoves = number(fen, i);
+            if(fullmoves > 0)
+                fullmoveNumber = fullmoves;
+        }
+
+        ArrayList<Piece> pieces = new ArrayList<>(32);
+        Pawn doubleMover = null;
+        int kings = 0;
+        for(int square = 0; square < 64; square++)
+        {
+            char symbol = squares[square];
+            if(symbol == 0)
+                continue;
+            int r = square >>> 3, f = square & 7;
+            int colour = symbol < '♚' ? 1 : -1;
+            int home = colour == 1 ? 0 : 7;
+            boolean hasMoved;
+            switch((symbol - '♔') % 6) {
+                case 0:
+                    kings += colour == 1 ? 1 : 16;
+                    hasMoved = r != home  ||  f != 4
+                        ||  (castling & (Bitboards.square(home, 0) | Bitboards.square(home, 7))) == 0;
+                    break;
+                case 2:
+                    hasMoved = (castling & Bitboards.square(r, f)) == 0;
+                    break;
+                default:
+                    hasMoved = true;
+            }
+            Piece piece = Piece.getPiece(symbol, r, f, hasMoved);
+            if(square == enPassant  &&  piece instanceof Pawn  &&  colour == -turn)
+                doubleMover = (Pawn) piece;
+            pieces.add(piece);
+        }
+        if(kings != 17)
+            throw new IllegalArgumentException("not one King each in FEN: " + fen);
+        if(enPassant >= 0  &&  doubleMover == null)
+            throw new IllegalArgumentException("no Pawn for the en passant square in FEN: " + fen);
+        return new Position(pieces, turn, doubleMover, null, halfmoveClock, fullmoveNumber,
+                            null, Accumulator.of(pieces));
+    }
+
+    private static int skipSpaces(String text, int i)
+    {
+        while(i < text.length()  &&  text.charAt(i) == ' ')
+            i++;
+        return i;
+    }
+
+    /**
+     * The number made of the digits from {@code i} to the next space or the
+     * end, or -1 if there are none or anything else is among them.
+     */
+    private static int number(String text, int i)
+    {
+        int number = 0, digits = 0;
+        for(; i < text.length()  &&  text.charAt(i) != ' '; i++, digits++)
+        {
+            char c = text.charAt(i);
+            if(c < '0'  ||  c > '9'  ||  digits == 9)
+                return -1;
+            number = number * 10 + c - '0';
+        }
+        return digits == 0 ? -1 : number;
+    }
+
+    /**
+     * Writes the position in Forsyth-Edwards Notation, as read by
+     * {@link #fromFen}. The en passant square is only given when a Pawn could
+     * capture there, as in {@link #key}.
+     */
+    public String toFen()
+    {
+        StringBuilder fen = new StringBuilder(90);
+        for(int rank = 7; rank >= 0; rank--)
+        {
+            int empty = 0;
+            for(int file = 0; file < 8; file++)
+            {
+                Piece piece = board[rank][file];
+                if(piece == null) {
+                    empty++;
+                    continue;
+                }
+                if(empty > 0)
+                    fen.append(empty);
+                empty = 0;
+                fen.append(FEN_PIECES.charAt(piece.symbol - '♔'));
+            }
+            if(empty > 0)
+                fen.append(empty);
+            if(rank > 0)
+                fen.append('/');
+        }
+        fen.append(turn == 1 ? " w " : " b ");
+        int castling = fen.length();
+        if(castlingRight(1, 7))
+            fen.append('K');
+        if(castlingRight(1, 0))
+            fen.append('Q');
+        if(castlingRight(-1, 7))
+            fen.append('k');
+        if(castlingRight(-1, 0))
+            fen.append('q');
+        if(fen.length() == castling)
+            fen.append('-');
+        fen.append(' ');
+        if(enPassantPossible)
+            fen.append((char) ('a' + doubleMover.file)).append(doubleMover.rank + turn + 1);
+        else
+            fen.append('-');
+        return fen.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber).toString();
+    }
+
+    /**
+     * Whether neither the given player's King nor the Rook in the given
+     * corner has moved.
+     */
+    private boolean castlingRight(int colour, int rookFile)
+    {
+        int home = colour == 1 ? 0 : 7;
+        Piece king = board[home][4], rook = board[home][rookFile];
+        return king instanceof King  &&  king.colour == colour  &&  !king.hasMoved()
+            &&  rook instanceof Rook  &&  rook.colour == colour  &&  !rook.hasMoved();
+    }
+    
     public Position move(Move move)
     {
         Piece mover = this.board[move.originRank()][move.originFile()];
@@ -228,6 +679,7 @@ public class Position
         
         ArrayList<Piece> newPieces = (ArrayList<Piece>) pieces.clone();
         Pawn doubleMover = null;
+        Accumulator accumulator = this.accumulator.copy();
         
         for(int i = 0; i < newPieces.size(); i++) {
             Piece piece = newPieces.get(i);
@@ -237,36 +689,312 @@ public class Position
                 //capture...
                 if(board[rank][file] != null) {
                     newPieces.remove(board[rank][file]);
+                    accumulator.remove(board[rank][file]);
                 }
                 //castling...
                 else if(piece instanceof King  &&  Math.abs(piece.file - file) == 2) {
                     Piece rook = board[piece.rank][file == 2 ? 0 : 7];
+                    Piece newRook = rook.move(piece.rank, file == 2 ? 3 : 5);
                     newPieces.remove(rook);
-                    newPieces.add(rook.move(piece.rank, file == 2 ? 3 : 5));
+                    newPieces.add(newRook);
+                    accumulator.remove(rook);
+                    accumulator.add(newRook);
                 }
                 //en Passant...
                 else if(piece instanceof Pawn  &&  file != piece.file  &&  board[rank][file] == null) {
                     newPieces.remove(board[piece.rank][file]);
+                    accumulator.remove(board[piece.rank][file]);
                 }
                 
                 Piece newPiece = piece.move(move);
                 newPieces.add(newPiece);
+                accumulator.remove(piece);
+                accumulator.add(newPiece);
                 
                 if(piece instanceof Pawn  &&  Math.abs(rank - piece.rank) == 2)
                     doubleMover = (Pawn) newPiece;
                 
-                return new Position(newPieces, -turn, doubleMover);
+                accumulator.refreshNetwork(newPieces);
+                ArrayList<Piece> checkers = checkers(move, piece, newPiece);
+                int fullmove = turn == 1 ? fullmoveNumber : fullmoveNumber + 1;
+                //nothing before a capture or a Pawn move can ever recur.
+                if(piece instanceof Pawn  ||  newPieces.size() < pieces.size())
+                    return new Position(newPieces, -turn, doubleMover, null, 0, fullmove, checkers, accumulator);
+                return new Position(newPieces, -turn, doubleMover, this, halfmoveClock + 1, fullmove,
+                                    checkers, accumulator);
             }
         }
         return null;
     }
     
+    /**
+     * Checks whether a move gives check, without playing it. Only castling,
+     * en passant and promotions, which change more than the squares of one
+     * piece, are played out in full.
+     * @param move A legal move in this position.
+     * @return Whether the move checks the enemy King.
+     */
+    public boolean givesCheck(Move move)
+    {
+        Piece mover = board[move.originRank()][move.originFile()];
+        if(isSpecial(move, mover))
+            return move(move).CHECK;
+        checkInfo();
+        return directCheck(move, mover)  ||  discoveredChecker(move, mover) != null;
+    }
+
+    /**
+     * The pieces checking the enemy King after the given move, from the
+     * squares the moved piece left and reached alone.
+     * @return The checkers, or null if the move is one the whole board has
+     *         to be looked at for.
+     */
+    private ArrayList<Piece> checkers(Move move, Piece mover, Piece moved)
+    {
+        if(isSpecial(move, mover))
+            return null;
+        checkInfo();
+        ArrayList<Piece> checkers = new ArrayList<>(2);
+        if(directCheck(move, mover))
+            checkers.add(moved);
+        Piece discovered = discoveredChecker(move, mover);
+        if(discovered != null)
+            checkers.add(discovered);
+        return checkers;
+    }
+
+    /**
+     * Whether the moved piece itself checks the enemy King. A slider that is
+     * the first piece on a line to the King and moves straight back along it
+     * still checks, though {@link #checkSquares} stops at its square.
+     */
+    private boolean directCheck(Move move, Piece mover)
+    {
+        long[] squares = checkSquares;
+        if((squares[type(mover)] >>> (move.rank() << 3 | move.file()) & 1) != 0)
+            return true;
+        if(!mover.isFreelyMoving()  ||  (squares[type(mover)] >>> (mover.rank << 3 | mover.file) & 1) == 0)
+            return false;
+        int rJump = Integer.signum(mover.rank - enemyKing.rank);
+        int fJump = Integer.signum(mover.file - enemyKing.file);
+        int rank = move.rank() - enemyKing.rank, file = move.file() - enemyKing.file;
+        return rank * fJump == file * rJump
+            &&  Integer.signum(rank) == rJump  &&  Integer.signum(file) == fJump;
+    }
+
+    /** Castling, en passant and promotions. */
+    private boolean isSpecial(Move move, Piece mover)
+    {
+        return move.promotion() != 0
+            ||  mover instanceof King  &&  Math.abs(move.file() - mover.file) == 2
+            ||  mover instanceof Pawn  &&  move.file() != mover.file
+                &&  board[move.rank()][move.file()] == null;
+    }
+
+    /**
+     * The sliding piece whose line to the enemy King the move opens, if any.
+     */
+    private Piece discoveredChecker(Move move, Piece mover)
+    {
+        if((blockers >>> (mover.rank << 3 | mover.file) & 1) == 0)
+            return null;
+        int rJump = Integer.signum(mover.rank - enemyKing.rank);
+        int fJump = Integer.signum(mover.file - enemyKing.file);
+        //moving along the line keeps it blocked.
+        if((move.rank() - enemyKing.rank) * fJump == (move.file() - enemyKing.file) * rJump)
+            return null;
+        return nearestPieceFrom(mover.rank, mover.file, rJump, fJump);
+    }
+
+    /** Works out {@link #checkSquares} and {@link #blockers}, once. */
+    private void checkInfo()
+    {
+        if(checkSquares != null)
+            return;
+        long[] squares = new long[6];
+        long blockers = 0;
+        int rank = enemyKing.rank, file = enemyKing.file;
+
+        for(int[] jump : KNIGHT_JUMPS)
+            if(Utils.exists(rank + jump[0], file + jump[1]))
+                squares[KNIGHT] |= 1L << ((rank + jump[0]) << 3 | (file + jump[1]));
+        //a Pawn of the player to move captures towards rank + turn.
+        for(int f = file - 1; f <= file + 1; f += 2)
+            if(Utils.exists(rank - turn, f))
+                squares[PAWN] |= 1L << ((rank - turn) << 3 | f);
+
+        for(int[] step : Piece.ALL_DIRECTIONS)
+        {
+            long line = 0;
+            int r = rank, f = file;
+            while(Utils.exists(r += step[0], f += step[1]))
+            {
+                line |= 1L << (r << 3 | f);
+                if(board[r][f] != null)
+                    break;
+            }
+            boolean diagonal = step[0] != 0  &&  step[1] != 0;
+            squares[diagonal ? BISHOP : ROOK] |= line;
+            squares[QUEEN] |= line;
+
+            if(!Utils.exists(r, f)  ||  board[r][f].colour != turn)
+                continue;
+            Piece slider = nearestPieceFrom(r, f, step[0], step[1]);
+            if(slider != null  &&  slider.colour == turn  &&  slider.isFreelyMoving()
+                    &&  slider.mightBeEyeing(rank, file))
+                blockers |= 1L << (r << 3 | f);
+        }
+        this.blockers = blockers;
+        checkSquares = squares;
+    }
+
+    /** Works out {@link #attackMaps}, once. */
+    private long[] attackMaps()
+    {
+        if(attackMaps != null)
+            return attackMaps;
+        long[] maps = new long[OCCUPIED + 2];
+        for(Piece piece : pieces)
+            maps[OCCUPIED + side(piece.colour)] |= Bitboards.square(piece.rank, piece.file);
+        long occupied = maps[OCCUPIED] | maps[OCCUPIED + 1];
+        for(Piece piece : pieces)
+        {
+            long attacks = Bitboards.attacks(piece, occupied);
+            maps[(piece.rank << 3) + piece.file] = attacks;
+            maps[ATTACKED + side(piece.colour)] |= attacks;
+            if(piece instanceof Pawn)
+                maps[PAWN_ATTACKED + side(piece.colour)] |= attacks;
+        }
+        attackMaps = maps;
+        return maps;
+    }
+
+    private static int side(int colour)
+    {
+        return colour == 1 ? 0 : 1;
+    }
+
+    /**
+     * The squares a piece of this position attacks, as in
+     * {@link Bitboards#attacks}: worked out for all the pieces at once the
+     * first time any is asked for.
+     */
+    public long attacks(Piece piece)
+    {
+        if(board[piece.rank][piece.file] != piece)
+            return Bitboards.attacks(piece, occupied(1) | occupied(-1));
+        return attackMaps()[(piece.rank << 3) + piece.file];
+    }
+
+    /** The squares any of the given player's pieces, Pawns and King included, attack. */
+    public long attackedBy(int colour)
+    {
+        return attackMaps()[ATTACKED + side(colour)];
+    }
+
+    /** The squares the given player's Pawns attack. */
+    public long pawnAttacks(int colour)
+    {
+        return attackMaps()[PAWN_ATTACKED + side(colour)];
+    }
+
+    /** The squares of the given player's pieces. */
+    public long occupied(int colour)
+    {
+        return attackMaps()[OCCUPIED + side(colour)];
+    }
+
+    private static final int KING = 0, QUEEN = 1, ROOK = 2, BISHOP = 3, KNIGHT = 4, PAWN = 5;
+    private static final int[][] KNIGHT_JUMPS =
+        {{+1,+2},{+2,+1},{+2,-1},{+1,-2},{-1,-2},{-2,-1},{-2,+1},{-1,+2}};
+
+    /** The type of a piece, in the order of the symbols from '♔' to '♙'. */
+    private static int type(Piece piece)
+    {
+        return (piece.symbol - '♔') % 6;
+    }
+
+    public PawnStructure pawnStructure()
+    {
+        if(pawnStructure == null)
+            pawnStructure = PawnStructure.of(this);
+        return pawnStructure;
+    }
+
+    /**
+     * Evaluates the position, but only as exactly as it takes to tell where
+     * the score falls against a window. When material and piece placement
+     * alone are further outside the window than the other terms could ever
+     * make up for, those are left out.
+     * @param lower The low end of the window, from the same point of view as
+     *              {@link #eval()}
+     * @param upper The high end of the window
+     * @return The score, exact if it is inside the window; otherwise a bound
+     *         on it that is outside the window too: the estimate less the
+     *         margin above the window, plus the margin below it.
+     */
+    public float eval(float lower, float upper) {
+        float cheap = cheapEval();
+        if(cheap + LAZY_MARGIN < lower) {
+            LAZY_EXITS.increment();
+            return cheap + LAZY_MARGIN;
+        }
+        if(cheap - LAZY_MARGIN > upper) {
+            LAZY_EXITS.increment();
+            return cheap - LAZY_MARGIN;
+        }
+        return eval();
+    }
+    
+    /**
+     * The evaluation without the piece-specific terms: material, piece
+     * placement and Pawn structure, from the same point of view as
+     * {@link #eval()}.
+     * @return The score, or NaN where the evaluation is not the classic one
+     *         or is already known, in check, or in an endgame with its own
+     *         evaluation or scaling.
+     */
+    float cheapEval() {
+        if(evaluation != null  ||  CHECK  ||  evaluator != CLASSIC) {
+            return Float.NaN;
+        }
+        Material material = Material.of(this);
+        if(material.endgame != null  ||  material.scale != 1) {
+            return Float.NaN;
+        }
+        return -turn * (accumulator.score(material.phase) + pawnStructure().score());
+    }
+    
+    /** How often {@link #eval(float, float)} has been spared the full evaluation. */
+    public static long lazyExits() { return LAZY_EXITS.sum(); }
+    
     public float eval() {
         if(evaluation != null) {
             return evaluation;
         }
+        float cached = EvalCache.probe(key);
+        if(!Float.isNaN(cached)) {
+            evaluation = cached;
+            return evaluation;
+        }
         if(CHECK  &&  stuck()) {
-            return 100000;
+            evaluation = 100000f;
+        }
+        else {
+            evaluation = evaluator.evaluate(this);
+        }
+        EvalCache.store(key, evaluation);
+        return evaluation;
+    }
+    
+    /**
+     * The hand-written evaluation: material and piece-square scores, Pawn
+     * structure and piece-specific terms, or an endgame's own evaluation.
+     */
+    private float classicEval() {
+        Material material = Material.of(this);
+        if(material.endgame != null) {
+            return -turn * material.strong * material.endgame.evaluate(this, material.strong);
         }
         ArrayList<Piece> whitePieces = new ArrayList<>();
         ArrayList<Piece> blackPieces = new ArrayList<>();
@@ -291,41 +1019,152 @@ public class Position
             }
         }
         float whitePoints = 0f, blackPoints = 0f;
-        for(Pawn pawn : whitePawns) {
-            whitePoints += pawn.value() + pawn.developmentPoints();
-            if(pawn.isDoubled(whitePawns)) {
-                whitePoints -= 0.25f;
-            }
-            if(pawn.isIsolated(whitePawns)) {
-                whitePoints -= pawn.file % 7 == 0 ? 0.12f : 0.25f;
-            }
-            else if(pawn.isBackward(whitePawns)) {
-                whitePoints -= pawn.file % 7 == 0 ? 0.05f : 0.1f;
+        for(Piece piece : whitePieces) {
+            whitePoints += piece.developmentPoints(this, whitePawns, blackPawns, whitePieces, blackPieces);
+        }
+        for(Piece piece : blackPieces) {
+            blackPoints += piece.developmentPoints(this, blackPawns, whitePawns, blackPieces, whitePieces);
+        }
+        //the totals are White's, and this score is for the player who just moved.
+        float score = blackPoints - whitePoints - turn * (accumulator.score(material.phase) + pawnStructure().score());
+        return score * material.scale;
+    }
+    
+    /**
+     * Sets how positions are evaluated from now on, for all searches.
+     * Positions made after a {@link Nnue} is set keep its first layer up to
+     * date move by move.
+     */
+    public static void setEvaluator(Evaluator evaluator) {
+        Position.network = evaluator instanceof Nnue ? (Nnue) evaluator : null;
+        Position.evaluator = evaluator;
+        //scores by the old evaluator no longer apply.
+        EvalCache.clear();
+    }
+    
+    /**
+     * The first layer of the given network for this position, if kept up to
+     * date since it was set; null if not.
+     */
+    short[][] networkAccumulator(Nnue network) {
+        return accumulator.network == network ? accumulator.layer : null;
+    }
+    
+    /** The key of the material on the board, for {@link Material}. */
+    long materialKey()
+    {
+        return accumulator.materialKey;
+    }
+    
+    /**
+     * The parts of the evaluation that depend on each piece alone: material,
+     * piece-square scores and the material key. A move changes only a few
+     * pieces, so {@link #move} updates these from the previous position's
+     * rather than summing over the board again.
+     */
+    private static final class Accumulator
+    {
+        /** White's minus Black's, in hundredths of a Pawn. */
+        private int material, mg, eg;
+        private long materialKey;
+        /** The network the first layer is kept for, or null. */
+        private Nnue network;
+        /** White's and Black's side of the network's first layer. */
+        private short[][] layer;
+        /** White's and Black's King squares, for the network. */
+        private int[] kings;
+        /** Whether a side's King has moved, so its side needs recomputing. */
+        private boolean[] stale;
+        
+        static Accumulator of(ArrayList<Piece> pieces)
+        {
+            Accumulator accumulator = new Accumulator();
+            accumulator.network = Position.network;
+            if(accumulator.network != null) {
+                accumulator.layer = new short[2][accumulator.network.hidden];
+                accumulator.kings = new int[2];
+                accumulator.stale = new boolean[] {true, true};
             }
+            for(Piece piece : pieces)
+                accumulator.add(piece);
+            accumulator.refreshNetwork(pieces);
+            return accumulator;
         }
-        for(Pawn pawn : blackPawns) {
-            blackPoints += pawn.value() + pawn.developmentPoints();
-            if(pawn.isDoubled(blackPawns)) {
-                blackPoints -= 0.25f;
+        
+        Accumulator copy()
+        {
+            Accumulator copy = new Accumulator();
+            copy.material = material;
+            copy.mg = mg;
+            copy.eg = eg;
+            copy.materialKey = materialKey;
+            copy.network = network;
+            if(network != null) {
+                copy.layer = new short[][] {layer[0].clone(), layer[1].clone()};
+                copy.kings = kings.clone();
+                copy.stale = new boolean[2];
             }
-            if(pawn.isIsolated(blackPawns)) {
-                blackPoints -= 0.25f;
+            return copy;
+        }
+        
+        void add(Piece piece)
+        {
+            if(network != null)
+                updateNetwork(piece, true);
+            //the King's 'infinite' value would swamp everything else in a float.
+            if(!(piece instanceof King))
+                material += piece.colour * Math.round(piece.value() * 100);
+            mg += piece.colour * PieceSquareTables.mg(piece);
+            eg += piece.colour * PieceSquareTables.eg(piece);
+            materialKey += Material.key(piece);
+        }
+        
+        void remove(Piece piece)
+        {
+            if(network != null)
+                updateNetwork(piece, false);
+            if(!(piece instanceof King))
+                material -= piece.colour * Math.round(piece.value() * 100);
+            mg -= piece.colour * PieceSquareTables.mg(piece);
+            eg -= piece.colour * PieceSquareTables.eg(piece);
+            materialKey -= Material.key(piece);
+        }
+        
+        float score(int phase)
+        {
+            return material / 100f + PieceSquareTables.taper(mg, eg, phase);
+        }
+        
+        private void updateNetwork(Piece piece, boolean added)
+        {
+            int side = piece.colour == 1 ? 0 : 1;
+            if(piece instanceof King) {
+                //every input of the King's side depends on its square.
+                kings[side] = (piece.rank << 3) + piece.file;
+                stale[side] = true;
+                return;
             }
-            else if(pawn.isBackward(blackPawns)) {
-                blackPoints -= 0.1f;
+            for(side = 0; side < 2; side++) {
+                if(stale[side])
+                    continue;
+                if(added)
+                    network.add(layer[side], side == 0 ? 1 : -1, kings[side], piece);
+                else
+                    network.remove(layer[side], side == 0 ? 1 : -1, kings[side], piece);
             }
         }
         
-        for(Piece piece : whitePieces) {
-            whitePoints += piece.value() 
-            + piece.developmentPoints(this, whitePawns, blackPawns, whitePieces, blackPieces);
-        }
-        for(Piece piece : blackPieces) {
-            blackPoints += piece.value()
-            + piece.developmentPoints(this, blackPawns, whitePawns, blackPieces, whitePieces);
+        /** Recomputes the sides of the network's first layer whose King moved. */
+        void refreshNetwork(ArrayList<Piece> pieces)
+        {
+            if(network == null)
+                return;
+            for(int side = 0; side < 2; side++)
+                if(stale[side]) {
+                    network.refresh(layer[side], side == 0 ? 1 : -1, pieces);
+                    stale[side] = false;
+                }
         }
-        evaluation = blackPoints - whitePoints;
-        return evaluation;
     }
     
 }
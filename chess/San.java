@@ -0,0 +1,134 @@
+package chess;
+
+import pieces.Piece;
+
+/**
+ * Reads moves in Standard Algebraic Notation, as in PGN files ("e4", "Nbd7",
+ * "exd6", "e8=Q+", "O-O-O"), and in long algebraic notation ("Ng1-f3",
+ * "e7xe8Q", or "e2e4" and "e7e8q" as in UCI).
+ * <p>
+ * Unlike {@link Chess#move}, which is meant for a player typing, this works
+ * on the characters in place, with no substrings or regular expressions, and
+ * only asks the position whether each candidate move is legal rather than
+ * generating the moves. It is meant for reading large numbers of games.
+ * Decoding does not make strings, but is not free of allocation: see
+ * {@link Position#isLegal}, and playing the move decoded makes a new
+ * {@link Position}.
+ * </p>
+ */
+public final class San
+{
+    private San() {}
+
+    /**
+     * @return The move as {@link Move#packed()}, or 0 if the text is not a
+     *         legal move in the position, or could be more than one.
+     */
+    public static int decode(Position pos, CharSequence text)
+    {
+        return decode(pos, text, 0, text.length());
+    }
+
+    /**
+     * Decodes the move in the characters {@code start} (included) to
+     * {@code end} (excluded) of the text.
+     * @return The move as {@link Move#packed()}, or 0 if the text is not a
+     *         legal move in the position, or could be more than one.
+     */
+    public static int decode(Position pos, CharSequence text, int start, int end)
+    {
+        //check, mate and annotations: "+", "#", "!", "?".
+        while(end > start  &&  isSuffix(text.charAt(end - 1)))
+            end--;
+        if(end - start < 2)
+            return 0;
+
+        int castling = castling(text, start, end);
+        if(castling != 0) {
+            int rank = pos.king.rank, file = pos.king.file;
+            int packed = (((rank << 3) + file) << 9) + (rank << 6) + ((castling > 0 ? 6 : 2) << 3);
+            return pos.isLegal(packed) ? packed : 0;
+        }
+
+        //the promotion follows the destination, with or without '='.
+        int promotion = 0;
+        char last = text.charAt(end - 1);
+        if(last < '1'  ||  last > '8') {
+            promotion = "QRBN".indexOf(Character.toUpperCase(last)) + 1;
+            if(promotion == 0)
+                return 0;
+            end--;
+            if(end > start  &&  text.charAt(end - 1) == '=')
+                end--;
+        }
+        if(end - start < 2  ||  !isFile(text.charAt(end - 2))  ||  !isRank(text.charAt(end - 1)))
+            return 0;
+        int file = text.charAt(end - 2) - 'a', rank = text.charAt(end - 1) - '1';
+        end -= 2;
+
+        //the piece, 'P' for a Pawn allowed too; none for a Pawn.
+        int type = 5;
+        boolean named = false;
+        if(start < end  &&  "KQRBNP".indexOf(text.charAt(start)) >= 0) {
+            type = "KQRBNP".indexOf(text.charAt(start++));
+            named = true;
+        }
+        if(start < end  &&  (text.charAt(end - 1) == 'x'  ||  text.charAt(end - 1) == '-'  ||  text.charAt(end - 1) == ':'))
+            end--;
+        int originFile = -1, originRank = -1;
+        if(start < end  &&  isFile(text.charAt(start)))
+            originFile = text.charAt(start++) - 'a';
+        if(start < end  &&  isRank(text.charAt(start)))
+            originRank = text.charAt(start++) - '1';
+        if(start != end)
+            return 0;
+        //a bare "e2e4" may be any piece.
+        boolean anyPiece = !named  &&  originFile >= 0  &&  originRank >= 0;
+
+        int found = 0;
+        for(int i = 0; i < pos.pieces.size(); i++)
+        {
+            Piece piece = pos.pieces.get(i);
+            if(piece.colour != pos.turn  ||  !anyPiece  &&  (piece.symbol - '♔') % 6 != type
+                    ||  originFile >= 0  &&  piece.file != originFile
+                    ||  originRank >= 0  &&  piece.rank != originRank)
+                continue;
+            int packed = (((piece.rank << 3) + piece.file) << 9) + (rank << 6) + (file << 3) + promotion;
+            if(pos.isLegal(packed)) {
+                //ambiguous.
+                if(found != 0)
+                    return 0;
+                found = packed;
+            }
+        }
+        return found;
+    }
+
+    /** @return 1 for "O-O", -1 for "O-O-O", with letters O or zeros; 0 otherwise. */
+    private static int castling(CharSequence text, int start, int end)
+    {
+        int length = end - start;
+        if(length != 3  &&  length != 5)
+            return 0;
+        char o = text.charAt(start);
+        if(o != 'O'  &&  o != '0')
+            return 0;
+        for(int i = start; i < end; i++)
+            if(text.charAt(i) != ((i - start) % 2 == 0 ? o : '-'))
+                return 0;
+        return length == 3 ? 1 : -1;
+    }
+
+    private static boolean isSuffix(char c)
+    {
+        return c == '+'  ||  c == '#'  ||  c == '!'  ||  c == '?';
+    }
+    private static boolean isFile(char c)
+    {
+        return c >= 'a'  &&  c <= 'h';
+    }
+    private static boolean isRank(char c)
+    {
+        return c >= '1'  &&  c <= '8';
+    }
+}
@@ -0,0 +1,44 @@
+package chess;
+
+import java.util.List;
+
+/**
+ * The outcome of a search by {@link Engine2}: the best move found, the line
+ * of play expected to follow, its score in pawns for the player to move, the
+ * depth it was found at, the deepest ply reached counting the quiescence
+ * search, and the nodes searched in all.
+ */
+public class SearchResult
+{
+    public final Move move;
+    /** The principal variation, starting with {@link #move}. */
+    public final List<Move> pv;
+    public final float score;
+    public final int depth;
+    public final int selDepth;
+    public final long nodes;
+    /** 1 for the best line, 2 for the second best and so on, in Multi-PV mode. */
+    public final int line;
+
+    SearchResult(int line, List<Move> pv, float score, int depth, int selDepth, long nodes)
+    {
+        this.line = line;
+        this.pv = pv;
+        this.move = pv.get(0);
+        this.score = score;
+        this.depth = depth;
+        this.selDepth = selDepth;
+        this.nodes = nodes;
+    }
+
+    SearchResult withNodes(long nodes)
+    {
+        return new SearchResult(line, pv, score, depth, selDepth, nodes);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d. %s (%.2f) depth %d/%d, %d nodes", line, pv, score, depth, selDepth, nodes);
+    }
+}
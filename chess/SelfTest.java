@@ -0,0 +1,403 @@
+package chess;
+
+import pieces.King;
+import pieces.Piece;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Checks the move generator against known move counts and positions it has
+ * got wrong before, the reading and writing of FEN, and the reading of SAN
+ * and PGN.
+ * <p>
+ * Usage: {@code java chess.SelfTest}
+ * </p>
+ * Every check that fails is printed, and the exit status is 1 if any did.
+ */
+public final class SelfTest
+{
+    /**
+     * Positions and their numbers of move sequences to a depth: the initial
+     * position, then "Kiwipete" and the others of the Chess Programming Wiki's
+     * perft page, full of pins, checks, castling, en passant and promotions.
+     */
+    private static final Object[][] PERFT =
+    {
+        {"rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1", 4, 197281L},
+        {"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1", 3, 97862L},
+        {"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1", 5, 674624L},
+        {"r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1", 3, 9467L},
+        {"rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8", 3, 62379L},
+        {"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10", 3, 89890L},
+    };
+
+    private static int failures;
+
+    private SelfTest() {}
+
+    public static void main(String[] args)
+    {
+        checks();
+        perft();
+        legality();
+        fen();
+        san();
+        pgn();
+        exchanges();
+        System.out.println(failures == 0 ? "all passed" : failures + " failed");
+        if(failures > 0)
+            System.exit(1);
+    }
+
+    /**
+     * A slider retreating along its line to the enemy King still checks, and
+     * the reply must deal with it. Such positions, with the player not to
+     * move in check, only come from a FEN, but the engine is given those.
+     */
+    private static void checks()
+    {
+        String[][] retreats =
+        {
+            {"4k3/8/4Q3/8/8/8/8/4K3 w - - 0 1", "e6e5"},
+            {"4k3/p7/2B5/8/8/8/8/4K3 w - - 0 1", "c6a4"},
+            {"4k3/8/4R3/8/8/8/8/4K3 w - - 0 1", "e6e3"},
+        };
+        for(String[] retreat : retreats)
+        {
+            Position pos = Position.fromFen(retreat[0]);
+            Move move = Move.fromUci(retreat[1]);
+            check(pos.givesCheck(move), retreat[1] + " gives check in " + retreat[0]);
+            Position next = pos.move(move);
+            check(next.CHECK, retreat[1] + " leaves Black in check in " + retreat[0]);
+            for(Move reply : moves(next))
+            {
+                Position after = next.move(reply);
+                check(after.attackers(king(after, -1)).isEmpty(),
+                      reply.toUci() + " leaves Black in check after " + retreat[1] + " in " + retreat[0]);
+            }
+        }
+    }
+
+    /**
+     * Counts the move sequences from each of {@link #PERFT}'s positions, and
+     * checks every move on the way as {@link #walk} does.
+     */
+    private static void perft()
+    {
+        for(Object[] test : PERFT)
+        {
+            String fen = (String) test[0];
+            long leaves = walk(Position.fromFen(fen), (int) test[1], fen);
+            check(leaves == (long) test[2], "perft " + test[1] + " of " + fen + " is " + leaves + ", not " + test[2]);
+        }
+    }
+
+    /**
+     * {@link Position#isLegal}, as used on hash moves, must accept exactly the
+     * moves generated, out of every packed move from a square of the player
+     * to move's, in {@link #PERFT}'s positions and those a move after.
+     */
+    private static void legality()
+    {
+        for(Object[] test : PERFT)
+        {
+            Position root = Position.fromFen((String) test[0]);
+            legality(root);
+            for(Move move : moves(root))
+                legality(root.move(move));
+        }
+    }
+
+    private static void legality(Position pos)
+    {
+        HashSet<Integer> generated = new HashSet<>();
+        for(Move move : moves(pos))
+            generated.add(move.packed());
+        for(Piece piece : pos.pieces)
+        {
+            if(piece.colour != pos.turn)
+                continue;
+            for(int to = 0; to < 64; to++)
+                for(int promotion = 0; promotion <= 4; promotion++)
+                {
+                    int packed = (piece.rank << 3 | piece.file) << 9 | to << 3 | promotion;
+                    if(pos.isLegal(packed) != generated.contains(packed))
+                        check(false, "isLegal(" + new Move(packed).toUci() + ") is " + pos.isLegal(packed)
+                                     + " in " + pos.toFen());
+                }
+        }
+    }
+
+    /**
+     * FEN read is written back the same, and a position played to has the
+     * FEN it should and the same key as the position read from that. Bad FEN
+     * is refused. The en passant square is only given when a capture there
+     * is possible.
+     */
+    private static void fen()
+    {
+        String[] fens =
+        {
+            "r3k2r/8/8/8/8/8/8/R3K2R w Kq - 12 40",
+            "4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 2",
+            "8/8/8/8/8/8/8/K6k b - - 99 120",
+        };
+        for(String fen : fens)
+            check(Position.fromFen(fen).toFen().equals(fen), "FEN " + fen + " read back as " + Position.fromFen(fen).toFen());
+        for(Object[] test : PERFT)
+        {
+            String fen = (String) test[0];
+            check(Position.fromFen(fen).toFen().equals(fen), "FEN " + fen + " read back as " + Position.fromFen(fen).toFen());
+            Position root = Position.fromFen(fen);
+            for(Move move : moves(root))
+            {
+                Position next = root.move(move);
+                fen(next);
+                for(Move reply : moves(next))
+                    fen(next.move(reply));
+            }
+        }
+
+        String[][] games =
+        {
+            {"e2e4", "rnbqkbnr/pppppppp/8/8/4P3/8/PPPP1PPP/RNBQKBNR b KQkq - 0 1"},
+            {"e2e4 c7c5 e4e5 d7d5", "rnbqkbnr/pp2pppp/8/2ppP3/8/8/PPPP1PPP/RNBQKBNR w KQkq d6 0 3"},
+            {"g1f3 g8f6 h1g1 h8g8 g1h1 g8h8", "rnbqkb1r/pppppppp/5n2/8/8/5N2/PPPPPPPP/RNBQKB1R w Qq - 6 4"},
+            {"e2e4 e7e5 e1e2 e8e7", "rnbq1bnr/ppppkppp/8/4p3/4P3/8/PPPPKPPP/RNBQ1BNR w - - 2 3"},
+        };
+        for(String[] game : games)
+        {
+            Position pos = new Chess().position;
+            for(String move : game[0].split(" "))
+                pos = pos.move(Move.fromUci(move));
+            check(pos.toFen().equals(game[1]), game[0] + " gives " + pos.toFen() + ", not " + game[1]);
+            fen(pos);
+        }
+
+        String[] bad =
+        {
+            "",
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP w KQkq - 0 1",
+            "rnbqkbnr/pppppppp/9/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNX w KQkq - 0 1",
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR x KQkq - 0 1",
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQxq - 0 1",
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq e3 0 1",
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq e6 0 1",
+            "8/8/8/8/8/8/8/K7 w - - 0 1",
+        };
+        for(String fen : bad)
+        {
+            try {
+                Position.fromFen(fen);
+                check(false, "bad FEN " + fen + " read");
+            }
+            catch(IllegalArgumentException e) {
+                //as it should.
+            }
+        }
+    }
+
+    /**
+     * {@link San} reads each move as the UCI move given, or as none: naming
+     * the origin file or rank or neither, promoting with and without '=',
+     * castling with letters or zeros, with suffixes, and in long algebraic
+     * notation. A pinned piece does not make a move ambiguous.
+     */
+    private static void san()
+    {
+        String knights = "4k3/8/8/8/8/8/8/1N2KN2 w - - 0 1";
+        String rooks = "4k3/8/8/R7/8/8/8/R3K3 w - - 0 1";
+        String pinned = "4k3/8/8/8/8/8/8/1N2KN1r w - - 0 1";
+        String promotion = "r3k3/1P6/8/8/8/8/8/4K3 w - - 0 1";
+        String castling = "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1";
+        String start = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+        String[][] moves =
+        {
+            {knights, "Nbd2", "b1d2"},
+            {knights, "Nfd2", "f1d2"},
+            {knights, "N1d2", null},
+            {knights, "Nd2", null},
+            {knights, "Nc3", "b1c3"},
+            {rooks, "R1a3", "a1a3"},
+            {rooks, "R5a3", "a5a3"},
+            {rooks, "Raa3", null},
+            {rooks, "Ra3", null},
+            {rooks, "Rb1", "a1b1"},
+            {pinned, "Nd2", "b1d2"},
+            {pinned, "Nfd2", null},
+            {promotion, "b8=Q", "b7b8q"},
+            {promotion, "b8Q", "b7b8q"},
+            {promotion, "b8=N", "b7b8n"},
+            {promotion, "bxa8=R+", "b7a8r"},
+            {promotion, "bxa8B", "b7a8b"},
+            {promotion, "b7b8q", "b7b8q"},
+            {promotion, "b8", null},
+            {promotion, "b8=K", null},
+            {castling, "O-O", "e1g1"},
+            {castling, "O-O-O", "e1c1"},
+            {castling, "0-0", "e1g1"},
+            {castling, "0-0-0+", "e1c1"},
+            {castling, "O-0", null},
+            {castling.replace(" w ", " b "), "O-O", "e8g8"},
+            {castling.replace("KQkq", "Qkq"), "O-O", null},
+            {start, "e4!?", "e2e4"},
+            {start, "Nf3+", "g1f3"},
+            {start, "e2e4", "e2e4"},
+            {start, "e2-e4", "e2e4"},
+            {start, "Ng1-f3", "g1f3"},
+            {start, "Ng1f3", "g1f3"},
+            {start, "g1f3", "g1f3"},
+            {start, "e5", null},
+            {start, "Nf4", null},
+            {start, "Bc4", null},
+            {start, "O-O", null},
+            {start, "e2e5", null},
+            {start, "exd3", null},
+            {start, "Xe4", null},
+            {start, "", null},
+        };
+        for(String[] move : moves)
+        {
+            int packed = San.decode(Position.fromFen(move[0]), move[1]);
+            int expected = move[2] == null ? 0 : Move.fromUci(move[2]).packed();
+            check(packed == expected, "SAN " + move[1] + " read as " + (packed == 0 ? "none" : new Move(packed).toUci())
+                                      + ", not " + (move[2] == null ? "none" : move[2]) + " in " + move[0]);
+        }
+    }
+
+    /**
+     * {@link PgnReader} reads past comments, variations and annotations, and
+     * past what it cannot read: a bad move or FEN ends that game, with an
+     * error, and a stray ')' is skipped rather than read again for ever.
+     */
+    private static void pgn()
+    {
+        String text = "[Event \"stray\"]\n\n1. e4 e5 ) 2. Nf3 1-0\n\n"
+                    + "[Event \"notes\"]\n\n1. d4 {a comment} d5 (1... Nf6 (1... e6) 2. c4) 2. c4!? $1 ; a line\ne6 1/2-1/2\n\n"
+                    + "[Event \"bad move\"]\n\n1. e4 e5 2. Ke3 Nc6 0-1\n\n"
+                    + "[Event \"bad FEN\"]\n[FEN \"8/8/8 w - - 0 1\"]\n\n1. e4 ) 2. Nf3 *\n\n"
+                    + "[Event \"last\"]\n\n1. e4 *\n";
+        Object[][] expected =
+        {
+            {"stray", "e2e4 e7e5 g1f3", "1-0", false},
+            {"notes", "d2d4 d7d5 c2c4 e7e6", "1/2-1/2", false},
+            {"bad move", "e2e4 e7e5", "0-1", true},
+            {"bad FEN", "", "*", true},
+            {"last", "e2e4", "*", false},
+        };
+        try(PgnReader reader = new PgnReader(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))))
+        {
+            for(Object[] game : expected)
+            {
+                PgnReader.Game read = reader.next();
+                if(read == null) {
+                    check(false, "PGN game " + game[0] + " not read");
+                    return;
+                }
+                StringBuilder moves = new StringBuilder();
+                for(int move : read.moves)
+                    moves.append(moves.length() > 0 ? " " : "").append(new Move(move).toUci());
+                check(game[0].equals(read.tags.get("Event"))  &&  moves.toString().equals(game[1])
+                        &&  read.result.equals(game[2])  &&  (read.error != null) == (boolean) game[3],
+                      "PGN game " + game[0] + " read as " + read.tags.get("Event") + ": " + moves + " " + read.result
+                      + (read.error == null ? "" : " (" + read.error + ")"));
+            }
+            check(reader.next() == null, "PGN has a game after the last");
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * {@link Position#see} counts the captures that pay, with the pieces
+     * behind others on a line, en passant and promotion.
+     */
+    private static void exchanges()
+    {
+        Object[][] exchanges =
+        {
+            {"4k3/8/8/3p4/4P3/8/8/4K3 w - - 0 1", "e4d5", 1f},
+            {"4k3/8/2p5/3p4/4P3/8/8/4K3 w - - 0 1", "e4d5", 0f},
+            {"4k3/8/2p5/3p4/8/8/8/3QK3 w - - 0 1", "d1d5", -8f},
+            {"3rk3/8/8/3p4/8/8/3R4/3RK3 w - - 0 1", "d2d5", 1f},
+            {"3rk3/8/8/3p4/8/8/3R4/4K3 w - - 0 1", "d2d5", -4f},
+            {"4k3/8/8/3pP3/8/8/8/4K3 w - d6 0 2", "e5d6", 1f},
+            {"1r2k3/P7/8/8/8/8/8/4K3 w - - 0 1", "a7a8q", -1f},
+            {"1r2k3/P7/8/8/8/8/8/4K3 w - - 0 1", "a7b8q", 13f},
+        };
+        for(Object[] exchange : exchanges)
+        {
+            float see = Position.fromFen((String) exchange[0]).see(Move.fromUci((String) exchange[1]));
+            check(Math.abs(see - (float) exchange[2]) < 1e-4f, exchange[1] + " wins " + see + ", not " + exchange[2] + " in " + exchange[0]);
+        }
+    }
+
+    /** A position's FEN reads back as the same position, with the same key. */
+    private static void fen(Position pos)
+    {
+        String fen = pos.toFen();
+        Position read = Position.fromFen(fen);
+        check(read.toFen().equals(fen)  &&  read.key == pos.key, "FEN " + fen + " reads back differently");
+    }
+
+    /**
+     * Plays every move to the given depth. For each, {@link Position#givesCheck}
+     * and the checkers found from the move played must agree with a look at
+     * the whole board, and the move must not leave its own King attacked.
+     * @return The number of positions at the depth.
+     */
+    static long walk(Position pos, int depth, String root)
+    {
+        if(depth == 0)
+            return 1;
+        long leaves = 0;
+        for(Move move : moves(pos))
+        {
+            Position next = pos.move(move);
+            boolean attacked = !next.attackers(next.king).isEmpty();
+            if(next.CHECK != attacked  ||  pos.givesCheck(move) != attacked) {
+                check(false, move.toUci() + " checks " + attacked + " in " + pos.toFen() + " from " + root);
+                continue;
+            }
+            if(!next.attackers(king(next, pos.turn)).isEmpty()) {
+                check(false, move.toUci() + " leaves its King attacked in " + pos.toFen() + " from " + root);
+                continue;
+            }
+            leaves += walk(next, depth - 1, root);
+        }
+        return leaves;
+    }
+
+    /** The legal moves, as the engine generates them. */
+    static ArrayList<Move> moves(Position pos)
+    {
+        ArrayList<Move> moves = new ArrayList<>();
+        for(Piece piece : pos.pieces)
+            if(piece.colour == pos.turn)
+                for(int[] square : piece.movableTo(pos))
+                    moves.add(new Move(piece, square));
+        return moves;
+    }
+
+    private static Piece king(Position pos, int colour)
+    {
+        for(Piece piece : pos.pieces)
+            if(piece instanceof King  &&  piece.colour == colour)
+                return piece;
+        throw new IllegalStateException("no King in " + pos.toFen());
+    }
+
+    static void check(boolean passed, String what)
+    {
+        if(passed)
+            return;
+        failures++;
+        System.out.println("FAILED: " + what);
+    }
+}
@@ -0,0 +1,123 @@
+package chess;
+
+/**
+ * Decides how long a search may go on for, from any combination of a fixed
+ * time per move, the player's remaining clock and increment, a maximum
+ * number of nodes and a maximum depth. A limit of 0 means no limit.
+ * <p>
+ * There are two deadlines. Past the soft one, no new iteration is started,
+ * since it would most likely not finish in time; past the hard one, the
+ * iteration in progress is abandoned.
+ * </p>
+ * A search can also be put on the opponent's time with {@link #ponder()}:
+ * then no limit applies until {@link #ponderhit()}, which starts the clock.
+ * Either way, {@link #stop()} ends it.
+ */
+public class TimeManager
+{
+    /** Moves the remaining clock is assumed to be spread across. */
+    private static final int MOVES_TO_GO = 30;
+    /** Time kept in hand for the move to reach the clock, in milliseconds. */
+    private static final long OVERHEAD = 30;
+
+    public final long maxNodes;
+    public final int maxDepth;
+    private volatile long start;
+    private volatile boolean pondering;
+    private volatile boolean stopped;
+    private final long softLimit;
+    private final long hardLimit;
+
+    /**
+     * @param moveTime  Milliseconds to spend on this move
+     * @param time      Milliseconds left on the player's clock
+     * @param increment Milliseconds added to the clock after each move
+     * @param maxNodes  Nodes to search at most
+     * @param maxDepth  Plies to search to at most
+     */
+    public TimeManager(long moveTime, long time, long increment, long maxNodes, int maxDepth)
+    {
+        start = System.nanoTime();
+        this.maxNodes = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+        this.maxDepth = maxDepth > 0 ? maxDepth : Engine2.MAX_PLY - 1;
+
+        long soft = Long.MAX_VALUE, hard = Long.MAX_VALUE;
+        if(time > 0)
+        {
+            long optimum = time / MOVES_TO_GO + increment * 3 / 4;
+            long maximum = Math.max(time / 4 - OVERHEAD, 1);
+            soft = Math.min(optimum / 2, maximum);
+            hard = Math.min(optimum * 3, maximum);
+        }
+        if(moveTime > 0)
+        {
+            long budget = Math.max(moveTime - OVERHEAD, 1);
+            soft = Math.min(soft, budget);
+            hard = Math.min(hard, budget);
+        }
+        softLimit = soft;
+        hardLimit = hard;
+    }
+
+    public static TimeManager depth(int maxDepth)
+    {
+        return new TimeManager(0, 0, 0, 0, maxDepth);
+    }
+    public static TimeManager moveTime(long moveTime)
+    {
+        return new TimeManager(moveTime, 0, 0, 0, 0);
+    }
+
+    /**
+     * Lifts every limit, for searching the position expected after the
+     * opponent's reply while the opponent thinks.
+     * @return This time manager.
+     */
+    public TimeManager ponder()
+    {
+        pondering = true;
+        return this;
+    }
+
+    /**
+     * The opponent played the expected reply: the search goes on as an
+     * ordinary one, with the clock started now.
+     */
+    public void ponderhit()
+    {
+        start = System.nanoTime();
+        pondering = false;
+    }
+
+    /**
+     * Ends the search at once. Safe to call from any thread, and before the
+     * search has even started.
+     */
+    public void stop()
+    {
+        stopped = true;
+    }
+
+    /** Milliseconds since the search started. */
+    public long elapsed()
+    {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    /**
+     * Whether to go on to the next depth after finishing the given one.
+     */
+    public boolean canDeepen(int depth, long nodes)
+    {
+        return !stopped  &&  depth < maxDepth
+            &&  (pondering  ||  nodes < maxNodes  &&  elapsed() < softLimit);
+    }
+
+    /**
+     * Whether the search in progress has to be abandoned right away.
+     */
+    public boolean expired(long nodes)
+    {
+        return stopped  ||  !pondering  &&  (nodes >= maxNodes  ||  elapsed() >= hardLimit);
+    }
+}
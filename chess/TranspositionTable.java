@@ -0,0 +1,80 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size hash table of search results, indexed by {@link Position#key}.
+ * <p>
+ * Each entry packs the best move found ({@link Move#packed()}), the score,
+ * the depth it was searched to and whether the score is exact or only a
+ * bound into one {@code long}. The full key is kept alongside to tell apart
+ * positions that share a slot.
+ * </p>
+ * The table is shared between search threads without locking. The key is
+ * stored XORed with the entry, so that an entry torn by two threads writing
+ * the same slot at once no longer matches its key and is taken for a miss.
+ */
+class TranspositionTable
+{
+    /** The score is a lower bound: the search failed high. */
+    static final int LOWER = 1;
+    /** The score is an upper bound: the search failed low. */
+    static final int UPPER = 2;
+    static final int EXACT = LOWER | UPPER;
+
+    private final long[] keys;
+    private final long[] data;
+    private final int mask;
+
+    TranspositionTable(int megabytes)
+    {
+        //two longs to an entry.
+        long entries = Math.max(1, megabytes) * (1L << 20) / 16;
+        int size = Integer.highestOneBit((int) Math.min(entries, 1 << 30));
+        keys = new long[size];
+        data = new long[size];
+        mask = size - 1;
+    }
+
+    /**
+     * @param key   The key of the position to look up
+     * @return      The entry stored for the position, or 0 if there is none
+     */
+    long probe(long key)
+    {
+        int index = (int) key & mask;
+        long entry = data[index];
+        return (keys[index] ^ entry) == key ? entry : 0;
+    }
+
+    void store(long key, int move, float score, int depth, int bound)
+    {
+        int index = (int) key & mask;
+        long old = data[index];
+        if((keys[index] ^ old) == key)
+        {
+            //a shallower bound is worth less than what is already there.
+            if(bound != EXACT  &&  depth < depth(old))
+                return;
+            if(move == 0)
+                move = move(old);
+        }
+        long entry = (Float.floatToIntBits(score) & 0xffffffffL)
+                    | ((long) move << 32)
+                    | ((long) Math.max(depth, 0) << 47)
+                    | ((long) bound << 55);
+        keys[index] = key ^ entry;
+        data[index] = entry;
+    }
+
+    void clear()
+    {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+    }
+
+    static int move(long entry) { return (int) (entry >>> 32) & 0x7fff; }
+    static float score(long entry) { return Float.intBitsToFloat((int) entry); }
+    static int depth(long entry) { return (int) (entry >>> 47) & 0xff; }
+    static int bound(long entry) { return (int) (entry >>> 55) & 0b11; }
+}
@@ -0,0 +1,208 @@
+package chess;
+
+import pieces.Piece;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tunes the {@link Weight}s of the classic evaluation to game results, by
+ * the Texel method: the evaluation of each position, through a logistic
+ * curve, should predict the result of the game it came from.
+ * <p>
+ * Usage: {@code java chess.Tuner <positions file> [weights file] [passes]}
+ * </p>
+ * The positions file has one position a line, in FEN (the move counters may
+ * be left out), with the game's result anywhere after it as {@code 1-0},
+ * {@code 0-1} or {@code 1/2-1/2}, or as {@code [1.0]}, {@code [0.5]} or
+ * {@code [0.0]}, for White. EPD lines like {@code ... c9 "1-0";} do too.
+ * Positions in check, with no moves, or with a capture that wins material
+ * are left out: the evaluation is only asked about quiet ones.
+ * <p>
+ * First the scaling of the curve is fitted to the current weights. Then each
+ * weight in turn is moved a step up or down for as long as that lowers the
+ * mean squared error, for the given number of passes over all the weights
+ * (10 by default) or until no step helps. The weights are written to the
+ * weights file, {@code weights.txt} by default, after every pass; to use
+ * them, put it in place of the resource of the same name. Every error is
+ * worked out over all the positions at once, across all the cores.
+ * </p>
+ * Positions are held in memory as {@link Position}s, a kilobyte or two each.
+ */
+public final class Tuner
+{
+    /** The step weights are moved by, in Pawns. */
+    private static final float STEP = 0.01f;
+
+    /** A position and the result of its game for White: 1, 0.5 or 0. */
+    private static final class Sample
+    {
+        final Position pos;
+        final double result;
+
+        Sample(Position pos, double result)
+        {
+            this.pos = pos;
+            this.result = result;
+        }
+    }
+
+    private final List<Sample> samples;
+    /** The scaling of the logistic curve. */
+    private double k = 1;
+
+    private Tuner(List<Sample> samples)
+    {
+        this.samples = samples;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 1) {
+            System.err.println("usage: java chess.Tuner <positions file> [weights file] [passes]");
+            return;
+        }
+        Path output = Path.of(args.length > 1 ? args[1] : "weights.txt");
+        int passes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Tuner tuner = new Tuner(read(Path.of(args[0])));
+        System.out.printf("%d quiet positions%n", tuner.samples.size());
+        if(tuner.samples.isEmpty())
+            return;
+        tuner.fitK();
+        System.out.printf("K = %.4f, error %.6f%n", tuner.k, tuner.error());
+        tuner.tune(passes, output);
+    }
+
+    /** Reads the positions, skipping lines without a result and positions that are not quiet. */
+    private static List<Sample> read(Path file) throws IOException
+    {
+        try(Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8))
+        {
+            return lines.parallel()
+                        .map(Tuner::parse)
+                        .filter(Objects::nonNull)
+                        .filter(sample -> quiet(sample.pos))
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static Sample parse(String line)
+    {
+        double result;
+        if(line.contains("1/2-1/2")  ||  line.contains("[0.5]"))
+            result = 0.5;
+        else if(line.contains("1-0")  ||  line.contains("[1.0]"))
+            result = 1;
+        else if(line.contains("0-1")  ||  line.contains("[0.0]"))
+            result = 0;
+        else
+            return null;
+        try
+        {
+            return new Sample(Position.fromFen(line), result);
+        }
+        catch(IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Whether the player to move is out of check, has moves and has no
+     * capture or promotion that plainly wins material: of a piece worth more
+     * than the capturer or of an undefended one.
+     */
+    private static boolean quiet(Position pos)
+    {
+        if(pos.CHECK  ||  pos.stuck())
+            return false;
+        for(Piece piece : pos.pieces) {
+            if(piece.colour != pos.turn)
+                continue;
+            for(int[] square : piece.movableTo(pos)) {
+                if(square.length > 2  &&  square[2] != 0)
+                    return false;
+                Piece victim = pos.board[square[0]][square[1]];
+                if(victim != null  &&  (victim.value() > piece.value()  ||  !pos.underAttack(square[0], square[1])))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /** The evaluation for White, in Pawns. */
+    private static float score(Position pos)
+    {
+        //the evaluation is from the point of view of the player who just moved.
+        return -pos.turn * Position.CLASSIC.evaluate(pos);
+    }
+
+    private double error()
+    {
+        double k = this.k;
+        double sum = samples.parallelStream()
+                            .mapToDouble(sample -> {
+                                double predicted = 1 / (1 + Math.pow(10, -k * score(sample.pos) / 4));
+                                return (sample.result - predicted) * (sample.result - predicted);
+                            })
+                            .sum();
+        return sum / samples.size();
+    }
+
+    /** Finds the scaling that best fits the current weights, by ternary search. */
+    private void fitK()
+    {
+        double low = 0.05, high = 5;
+        while(high - low > 0.001)
+        {
+            double third = (high - low) / 3;
+            k = low + third;
+            double lowError = error();
+            k = high - third;
+            if(lowError < error())
+                high -= third;
+            else
+                low += third;
+        }
+        k = (low + high) / 2;
+    }
+
+    /** Moves the weights a step at a time while the error goes down. */
+    private void tune(int passes, Path output) throws IOException
+    {
+        float[] weights = Weight.vector();
+        double best = error();
+        for(int pass = 1; pass <= passes; pass++)
+        {
+            boolean improved = false;
+            for(int i = 0; i < weights.length; i++)
+            {
+                for(float step : new float[] {STEP, -STEP})
+                {
+                    float old = weights[i];
+                    //in whole steps, so that the file stays readable.
+                    weights[i] = Math.round((old + step) / STEP) * STEP;
+                    Weight.set(weights);
+                    double error = error();
+                    if(error < best) {
+                        best = error;
+                        improved = true;
+                        break;
+                    }
+                    weights[i] = old;
+                    Weight.set(weights);
+                }
+            }
+            Weight.save(output);
+            System.out.printf("pass %d: error %.6f%n", pass, best);
+            if(!improved)
+                break;
+        }
+    }
+}
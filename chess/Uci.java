@@ -0,0 +1,318 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Drives {@link Engine2} through the Universal Chess Interface, for GUIs and
+ * match runners: {@code java chess.Main uci}.
+ * <p>
+ * The commands are read on the main thread and every search runs on a
+ * thread of its own, so that {@code stop}, {@code ponderhit} and
+ * {@code isready} are answered while it goes on. Each iteration's lines are
+ * reported as {@code info} as soon as they are found. A command that changes
+ * the engine or the position waits for the search in progress to finish.
+ * </p>
+ * Supported: {@code uci}, {@code isready}, {@code ucinewgame},
+ * {@code setoption} (Hash, Threads, MultiPV, Ponder and EvalFile, a
+ * {@link Nnue} network), {@code position startpos|fen ... [moves ...]},
+ * {@code go} with {@code depth}, {@code nodes}, {@code movetime},
+ * {@code wtime}, {@code btime}, {@code winc}, {@code binc}, {@code infinite}
+ * and {@code ponder}, {@code stop}, {@code ponderhit} and {@code quit}.
+ */
+public class Uci
+{
+    private final Engine2 engine = new Engine2();
+    private Position position = new Chess().position;
+    /** The search in progress, or the last one. */
+    private Thread search;
+    private volatile TimeManager timeManager;
+    /**
+     * Held by an infinite or pondering search that has finished, so that it
+     * gives its best move only once told to.
+     */
+    private volatile CountDownLatch release;
+    private volatile boolean pondering;
+
+    public static void main(String[] args) throws IOException
+    {
+        new Uci().run();
+    }
+
+    /** Answers commands from the standard input until {@code quit} or its end. */
+    public void run() throws IOException
+    {
+        engine.setListener(this::info);
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while((line = in.readLine()) != null)
+        {
+            line = line.trim();
+            if(!line.isEmpty()  &&  !command(line.split("\\s+")))
+                return;
+        }
+        stop();
+        waitForSearch();
+    }
+
+    /**
+     * @return Whether to go on reading commands: false after {@code quit}.
+     */
+    private boolean command(String[] words)
+    {
+        switch(words[0])
+        {
+            case "uci":
+                System.out.println("id name ShallowRed");
+                System.out.println("id author CyberRat");
+                System.out.println("option name Hash type spin default 16 min 1 max 4096");
+                System.out.println("option name Threads type spin default 1 min 1 max 256");
+                System.out.println("option name MultiPV type spin default 1 min 1 max 64");
+                System.out.println("option name Ponder type check default false");
+                System.out.println("option name EvalFile type string default <empty>");
+                System.out.println("uciok");
+                break;
+            case "isready":
+                System.out.println("readyok");
+                break;
+            case "ucinewgame":
+                waitForSearch();
+                engine.clear();
+                position = new Chess().position;
+                break;
+            case "setoption":
+                waitForSearch();
+                setOption(words);
+                break;
+            case "position":
+                waitForSearch();
+                position(words);
+                break;
+            case "go":
+                waitForSearch();
+                go(words);
+                break;
+            case "stop":
+                stop();
+                break;
+            case "ponderhit":
+                ponderhit();
+                break;
+            case "quit":
+                stop();
+                waitForSearch();
+                return false;
+            case "debug":
+            case "register":
+                break;
+            default:
+                System.out.println("info string unknown command " + words[0]);
+        }
+        return true;
+    }
+
+    /** {@code setoption name <id> [value <x>]}; the name may be several words. */
+    private void setOption(String[] words)
+    {
+        int value = Arrays.asList(words).indexOf("value");
+        String name = String.join(" ", Arrays.copyOfRange(words, 2, value < 0 ? words.length : value));
+        String argument = value < 0 ? "" : String.join(" ", Arrays.copyOfRange(words, value + 1, words.length));
+        try
+        {
+            switch(name.toLowerCase())
+            {
+                case "hash":
+                    engine.setHash(Integer.parseInt(argument));
+                    break;
+                case "threads":
+                    engine.setThreads(Integer.parseInt(argument));
+                    break;
+                case "multipv":
+                    engine.setMultiPV(Integer.parseInt(argument));
+                    break;
+                case "ponder":
+                    break;
+                case "evalfile":
+                    Position.setEvaluator(argument.isEmpty()  ||  argument.equals("<empty>")
+                                          ? Position.CLASSIC : Nnue.load(Path.of(argument)));
+                    break;
+                default:
+                    System.out.println("info string unknown option " + name);
+            }
+        }
+        catch(NumberFormatException | IOException e)
+        {
+            System.out.println("info string bad value for " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * {@code position startpos|fen <fen> [moves <move> ...]}. A bad FEN or
+     * an illegal move is reported and leaves the position as it was.
+     */
+    private void position(String[] words)
+    {
+        int moves = Arrays.asList(words).indexOf("moves");
+        int end = moves < 0 ? words.length : moves;
+        Position pos;
+        if(words.length > 1  &&  words[1].equals("startpos"))
+            pos = new Chess().position;
+        else if(words.length > 2  &&  words[1].equals("fen")) {
+            try {
+                pos = Position.fromFen(String.join(" ", Arrays.copyOfRange(words, 2, end)));
+            }
+            catch(IllegalArgumentException e) {
+                System.out.println("info string " + e.getMessage());
+                return;
+            }
+        }
+        else {
+            System.out.println("info string bad position command");
+            return;
+        }
+        for(int i = end + 1; i < words.length; i++)
+        {
+            Move move = Move.fromUci(words[i]);
+            if(move == null  ||  !pos.isLegal(move.packed())) {
+                System.out.println("info string illegal move " + words[i]);
+                return;
+            }
+            pos = pos.move(move);
+        }
+        position = pos;
+    }
+
+    /** Starts a search of the current position with the limits given. */
+    private void go(String[] words)
+    {
+        long moveTime = 0, time = 0, increment = 0, nodes = 0;
+        int depth = 0;
+        boolean infinite = false, ponder = false;
+        int turn = position.turn;
+        try
+        {
+            for(int i = 1; i < words.length; i++)
+            {
+                switch(words[i])
+                {
+                    case "wtime": if(turn == 1) time = Long.parseLong(words[i + 1]); i++; break;
+                    case "btime": if(turn == -1) time = Long.parseLong(words[i + 1]); i++; break;
+                    case "winc": if(turn == 1) increment = Long.parseLong(words[i + 1]); i++; break;
+                    case "binc": if(turn == -1) increment = Long.parseLong(words[i + 1]); i++; break;
+                    case "movetime": moveTime = Long.parseLong(words[++i]); break;
+                    case "nodes": nodes = Long.parseLong(words[++i]); break;
+                    case "depth": depth = Integer.parseInt(words[++i]); break;
+                    case "infinite": infinite = true; break;
+                    case "ponder": ponder = true; break;
+                    //movestogo and searchmoves are not used.
+                    default: break;
+                }
+            }
+        }
+        catch(NumberFormatException | ArrayIndexOutOfBoundsException e)
+        {
+            System.out.println("info string bad go command");
+            return;
+        }
+
+        TimeManager timeManager = new TimeManager(moveTime, time, increment, nodes, depth);
+        if(ponder)
+            timeManager.ponder();
+        CountDownLatch release = infinite  ||  ponder ? new CountDownLatch(1) : null;
+        this.timeManager = timeManager;
+        this.release = release;
+        pondering = ponder  &&  !infinite;
+
+        Position root = position;
+        search = new Thread(() -> {
+            SearchResult result = engine.analyse(root, timeManager);
+            //infinite and pondering searches only end when told to.
+            if(release != null) {
+                try {
+                    release.await();
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if(result == null)
+                System.out.println("bestmove 0000");
+            else if(result.pv.size() > 1)
+                System.out.println("bestmove " + result.move.toUci() + " ponder " + result.pv.get(1).toUci());
+            else
+                System.out.println("bestmove " + result.move.toUci());
+        }, "search");
+        search.start();
+    }
+
+    private void stop()
+    {
+        TimeManager timeManager = this.timeManager;
+        if(timeManager != null)
+            timeManager.stop();
+        engine.stop();
+        CountDownLatch release = this.release;
+        if(release != null)
+            release.countDown();
+    }
+
+    /**
+     * The opponent played the move pondered on: the search goes on, now on
+     * the clock.
+     */
+    private void ponderhit()
+    {
+        TimeManager timeManager = this.timeManager;
+        CountDownLatch release = this.release;
+        if(!pondering  ||  timeManager == null)
+            return;
+        pondering = false;
+        timeManager.ponderhit();
+        if(release != null)
+            release.countDown();
+    }
+
+    private void waitForSearch()
+    {
+        if(search == null)
+            return;
+        try {
+            search.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        search = null;
+    }
+
+    /** Reports a line found by the search. */
+    private void info(SearchResult line)
+    {
+        long time = timeManager.elapsed();
+        StringBuilder info = new StringBuilder("info");
+        info.append(" depth ").append(line.depth).append(" seldepth ").append(line.selDepth)
+            .append(" multipv ").append(line.line).append(" score ").append(score(line.score))
+            .append(" nodes ").append(line.nodes).append(" nps ").append(line.nodes * 1000 / Math.max(time, 1))
+            .append(" time ").append(time).append(" pv");
+        for(Move move : line.pv)
+            info.append(' ').append(move.toUci());
+        System.out.println(info);
+    }
+
+    /** A score in Pawns, as centipawns or moves to mate. */
+    private static String score(float score)
+    {
+        if(Math.abs(score) > Engine2.MATE_BOUND)
+        {
+            int plies = Math.round(Engine2.MATE - Math.abs(score));
+            int moves = (plies + 1) / 2;
+            return "mate " + (score > 0 ? moves : -moves);
+        }
+        return "cp " + Math.round(score * 100);
+    }
+}
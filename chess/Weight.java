@@ -0,0 +1,181 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+
+/**
+ * The weights of the hand-written evaluation's terms, in Pawns, beside the
+ * piece-square tables. They are read from the resource {@code weights.txt},
+ * like {@link PieceSquareTables}, and can be replaced by a file written by
+ * {@link Tuner}.
+ * <p>
+ * Taken together the values are a vector, see {@link #vector()}, which is
+ * what the tuner searches over.
+ * </p>
+ */
+public enum Weight
+{
+    DOUBLED_PAWN,
+    ISOLATED_PAWN,
+    /** An isolated Pawn on the a- or h-file. */
+    ISOLATED_EDGE_PAWN,
+    BACKWARD_PAWN,
+    BACKWARD_EDGE_PAWN,
+
+    /** A Knight on its fourth or fifth rank that no enemy Pawn can drive away. */
+    KNIGHT_OUTPOST,
+    KNIGHT_OUTPOST_EDGE,
+    /**
+     * A Knight on the sixth or seventh rank: defended by a Pawn and safe, with
+     * an enemy Pawn in front; defended and safe; defended only.
+     */
+    KNIGHT_ADVANCED_SUPPORTED_BLOCKED,
+    KNIGHT_ADVANCED_SUPPORTED_SAFE,
+    KNIGHT_ADVANCED_SUPPORTED,
+    /** Not defended by a Pawn, but safe, with and without an enemy Pawn in front. */
+    KNIGHT_ADVANCED_BLOCKED,
+    KNIGHT_ADVANCED_SAFE,
+
+    /** For each Rook or Queen beside a Rook on the sixth or seventh rank. */
+    ROOK_SEVENTH_RANK_PARTNER,
+    /** For each Rook or Queen behind it. */
+    ROOK_SEVENTH_FILE_PARTNER,
+    /** By the number of enemy Pawns on that rank, 1 to 4 or more. */
+    ROOK_SEVENTH_ONE_PAWN,
+    ROOK_SEVENTH_TWO_PAWNS,
+    ROOK_SEVENTH_THREE_PAWNS,
+    ROOK_SEVENTH_FOUR_PAWNS,
+    /** No enemy Pawns on the rank, but one in front on its file. */
+    ROOK_SEVENTH_ENEMY_FILE,
+    /** For each Rook or Queen behind a Rook elsewhere. */
+    ROOK_BATTERY,
+    /** By the number of enemy Pawns on a Rook's file elsewhere. */
+    ROOK_FILE_ENEMY_PAWNS,
+    ROOK_FILE_ENEMY_PAWN,
+    ROOK_FILE_NO_ENEMY_PAWN,
+
+    /**
+     * For each square a piece attacks that is neither its own side's nor
+     * attacked by an enemy Pawn.
+     */
+    KNIGHT_MOBILITY,
+    BISHOP_MOBILITY,
+    ROOK_MOBILITY,
+    QUEEN_MOBILITY,
+    /**
+     * For each attack on a King or the squares around it, by a piece other
+     * than a Pawn, once at least two pieces attack there.
+     */
+    KING_ZONE_ATTACK,
+    /** A piece other than a Pawn or King that is attacked and not defended. */
+    HANGING_PIECE;
+
+    private float value;
+
+    static
+    {
+        try(InputStream in = Weight.class.getResourceAsStream("weights.txt"))
+        {
+            if(in == null)
+                throw new IllegalStateException("weights.txt not found");
+            read(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), "weights.txt");
+        }
+        catch(IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public float value() { return value; }
+
+    /**
+     * Replaces the weights with those in a file written by {@link #save}.
+     * Every weight has to be in it.
+     */
+    public static void load(Path file) throws IOException
+    {
+        try(BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+        {
+            read(reader, file.toString());
+        }
+        //scores by the old weights no longer apply.
+        EvalCache.clear();
+    }
+
+    /**
+     * Reads lines of a weight's name and value. Lines starting with '#' are
+     * comments.
+     */
+    private static void read(BufferedReader reader, String source) throws IOException
+    {
+        float[] values = new float[values().length];
+        EnumSet<Weight> missing = EnumSet.allOf(Weight.class);
+        String line;
+        while((line = reader.readLine()) != null)
+        {
+            line = line.trim();
+            if(line.isEmpty()  ||  line.startsWith("#"))
+                continue;
+            String[] words = line.split("\\s+");
+            if(words.length != 2)
+                throw new IllegalStateException(source + ": bad line " + line);
+            Weight weight;
+            try
+            {
+                weight = valueOf(words[0]);
+                values[weight.ordinal()] = Float.parseFloat(words[1]);
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new IllegalStateException(source + ": bad line " + line);
+            }
+            missing.remove(weight);
+        }
+        if(!missing.isEmpty())
+            throw new IllegalStateException(source + ": missing " + missing);
+        set(values);
+    }
+
+    /** Writes the weights in the format {@link #load} reads. */
+    public static void save(Path file) throws IOException
+    {
+        try(BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8))
+        {
+            writer.write("# weights of the evaluation terms, in Pawns");
+            writer.newLine();
+            for(Weight weight : values())
+            {
+                writer.write(weight.name() + " " + weight.value);
+                writer.newLine();
+            }
+        }
+    }
+
+    /** The values of all the weights, in the order of the constants. */
+    static float[] vector()
+    {
+        Weight[] weights = values();
+        float[] vector = new float[weights.length];
+        for(Weight weight : weights)
+            vector[weight.ordinal()] = weight.value;
+        return vector;
+    }
+
+    /**
+     * Sets all the weights from a vector like {@link #vector()}'s. Searches
+     * should not be running meanwhile.
+     */
+    static void set(float[] vector)
+    {
+        for(Weight weight : values())
+            weight.value = vector[weight.ordinal()];
+    }
+}
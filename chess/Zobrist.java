@@ -0,0 +1,93 @@
+package chess;
+
+import pieces.King;
+import pieces.Pawn;
+import pieces.Piece;
+import pieces.Rook;
+import java.util.Random;
+
+/**
+ * Random numbers for Zobrist hashing. The key of a {@link Position} is the XOR
+ * of one number per piece on its square, one per castling right still held,
+ * one for the file of a capturable double-moved pawn and one if Black is to
+ * move.
+ */
+final class Zobrist
+{
+    /** Indexed by {@code symbol - '♔'} and {@code (rank << 3) + file}. */
+    static final long[][] PIECE = new long[12][64];
+    /** White short, White long, Black short, Black long. */
+    static final long[] CASTLING = new long[4];
+    static final long[] EN_PASSANT = new long[8];
+    static final long SIDE;
+
+    static
+    {
+        //fixed seed, so that keys are the same across runs.
+        Random random = new Random(0x5ca1ab1eL);
+        for(long[] squares : PIECE)
+            for(int i = 0; i < 64; i++)
+                squares[i] = random.nextLong();
+        for(int i = 0; i < 4; i++)
+            CASTLING[i] = random.nextLong();
+        for(int i = 0; i < 8; i++)
+            EN_PASSANT[i] = random.nextLong();
+        SIDE = random.nextLong();
+    }
+
+    private Zobrist() {}
+
+    static long piece(Piece piece)
+    {
+        return PIECE[piece.symbol - '♔'][(piece.rank << 3) + piece.file];
+    }
+
+    static long key(Position pos, boolean enPassantPossible)
+    {
+        long key = 0;
+        for(Piece piece : pos.pieces)
+            key ^= piece(piece);
+
+        if(canStillCastle(pos.board, 0, 7))
+            key ^= CASTLING[0];
+        if(canStillCastle(pos.board, 0, 0))
+            key ^= CASTLING[1];
+        if(canStillCastle(pos.board, 7, 7))
+            key ^= CASTLING[2];
+        if(canStillCastle(pos.board, 7, 0))
+            key ^= CASTLING[3];
+
+        if(enPassantPossible)
+            key ^= EN_PASSANT[pos.doubleMover.file];
+        if(pos.turn == -1)
+            key ^= SIDE;
+        return key;
+    }
+
+    /**
+     * The XOR of the numbers of the Pawns alone, the same for all positions
+     * with the same Pawns.
+     */
+    static long pawnKey(Position pos)
+    {
+        long key = 0;
+        for(Piece piece : pos.pieces)
+            if(piece instanceof Pawn)
+                key ^= piece(piece);
+        return key;
+    }
+
+    /**
+     * Whether the King and the Rook in the given corner are both still
+     * unmoved. Unlike {@link King#canCastleShort}, this is the castling right
+     * and ignores checks and obstructions.
+     */
+    private static boolean canStillCastle(Piece[][] board, int rank, int rookFile)
+    {
+        Piece king = board[rank][4];
+        Piece rook = board[rank][rookFile];
+        return king instanceof King  &&  !king.hasMoved()
+            &&  rook instanceof Rook  &&  !rook.hasMoved()
+            &&  rook.colour == king.colour;
+    }
+}
@@ -1,6 +1,7 @@
 package pieces;
 
 import chess.Position;
+import chess.Weight;
 import java.util.ArrayList;
 
 public class Bishop extends Piece
@@ -19,7 +20,7 @@ public class Bishop extends Piece
         (Position pos, ArrayList<Pawn> friendlyPawns, ArrayList<Pawn> enemyPawns,
          ArrayList<Piece> friendlyPieces, ArrayList<Piece> enemyPieces)
     {
-        return 0;
+        return activity(pos, Weight.BISHOP_MOBILITY);
     }
     
     @Override
@@ -0,0 +1,190 @@
+package pieces;
+
+import java.util.ArrayList;
+
+/**
+ * Precomputed sets of squares for Pawn structure evaluation and for the
+ * squares pieces attack. A set is a {@code long} with bit
+ * {@code (rank << 3) + file} standing for each square in it, so that
+ * questions like "is there a Pawn on a neighbouring file ahead of this one?"
+ * come down to one AND of masks instead of a scan over the Pawns.
+ */
+public final class Bitboards
+{
+    /** The squares of each file. */
+    public static final long[] FILES = new long[8];
+    /** The squares of the files on either side of each file. */
+    public static final long[] ADJACENT_FILES = new long[8];
+    /** The squares of each rank. */
+    public static final long[] RANKS = new long[8];
+    /** White's, then Black's: the ranks strictly ahead of each rank. */
+    private static final long[][] AHEAD = new long[2][8];
+
+    /** The squares a piece attacks from each square, on an empty board. */
+    private static final long[] KNIGHT_ATTACKS = new long[64];
+    private static final long[] KING_ATTACKS = new long[64];
+    /** White's, then Black's. */
+    private static final long[][] PAWN_ATTACKS = new long[2][64];
+    /**
+     * The directions of {@link Piece#ALL_DIRECTIONS}, and from each square
+     * the squares in each direction up to the edge of the board.
+     */
+    private static final int[][] DIRECTIONS = Piece.ALL_DIRECTIONS;
+    private static final long[][] RAYS = new long[8][64];
+    /** The squares strictly between two squares on a line, and the whole line through them. */
+    private static final long[][] BETWEEN = new long[64][64];
+    private static final long[][] LINE = new long[64][64];
+
+    static
+    {
+        for(int i = 0; i < 8; i++) {
+            FILES[i] = 0x0101010101010101L << i;
+            RANKS[i] = 0xffL << (i << 3);
+        }
+        for(int i = 0; i < 8; i++) {
+            ADJACENT_FILES[i] = (i > 0 ? FILES[i - 1] : 0) | (i < 7 ? FILES[i + 1] : 0);
+            for(int r = i + 1; r < 8; r++)
+                AHEAD[0][i] |= RANKS[r];
+            for(int r = 0; r < i; r++)
+                AHEAD[1][i] |= RANKS[r];
+        }
+        int[][] jumps = {{+1,+2},{+2,+1},{+2,-1},{+1,-2},{-1,-2},{-2,-1},{-2,+1},{-1,+2}};
+        for(int rank = 0; rank < 8; rank++)
+        {
+            for(int file = 0; file < 8; file++)
+            {
+                int from = (rank << 3) + file;
+                for(int[] jump : jumps)
+                    KNIGHT_ATTACKS[from] |= squareIfExists(rank + jump[0], file + jump[1]);
+                for(int d = 0; d < 8; d++)
+                {
+                    KING_ATTACKS[from] |= squareIfExists(rank + DIRECTIONS[d][0], file + DIRECTIONS[d][1]);
+                    long between = 0;
+                    for(int r = rank + DIRECTIONS[d][0], f = file + DIRECTIONS[d][1];
+                            r >= 0  &&  r < 8  &&  f >= 0  &&  f < 8;
+                            r += DIRECTIONS[d][0], f += DIRECTIONS[d][1])
+                    {
+                        BETWEEN[from][(r << 3) + f] = between;
+                        between |= square(r, f);
+                    }
+                    RAYS[d][from] = between;
+                }
+                PAWN_ATTACKS[0][from] = squareIfExists(rank + 1, file - 1) | squareIfExists(rank + 1, file + 1);
+                PAWN_ATTACKS[1][from] = squareIfExists(rank - 1, file - 1) | squareIfExists(rank - 1, file + 1);
+            }
+        }
+        //the opposite of direction d is d + 4.
+        for(int from = 0; from < 64; from++)
+            for(int d = 0; d < 8; d++)
+                for(long ray = RAYS[d][from]; ray != 0; ray &= ray - 1)
+                    LINE[from][Long.numberOfTrailingZeros(ray)] = RAYS[d][from] | RAYS[(d + 4) & 7][from] | 1L << from;
+    }
+
+    private Bitboards() {}
+
+    public static long square(int rank, int file)
+    {
+        return 1L << ((rank << 3) + file);
+    }
+
+    private static long squareIfExists(int rank, int file)
+    {
+        return rank >= 0  &&  rank < 8  &&  file >= 0  &&  file < 8 ? square(rank, file) : 0;
+    }
+
+    /** The squares of a set, as {rank, file} pairs like those of {@link Piece#movableTo}. */
+    public static ArrayList<int[]> squares(long set)
+    {
+        ArrayList<int[]> squares = new ArrayList<>(Long.bitCount(set));
+        for(; set != 0; set &= set - 1) {
+            int square = Long.numberOfTrailingZeros(set);
+            squares.add(new int[]{square >>> 3, square & 7});
+        }
+        return squares;
+    }
+
+    /**
+     * The ranks strictly ahead of the given one, as the given player sees the
+     * board.
+     */
+    public static long ahead(int colour, int rank)
+    {
+        return AHEAD[colour == 1 ? 0 : 1][rank];
+    }
+
+    /** The squares of a file ahead of the given square. */
+    public static long frontSpan(int colour, int rank, int file)
+    {
+        return ahead(colour, rank) & FILES[file];
+    }
+
+    /**
+     * The squares on the neighbouring files ahead of the given square: all
+     * that a Pawn there could ever attack.
+     */
+    public static long attackSpan(int colour, int rank, int file)
+    {
+        return ahead(colour, rank) & ADJACENT_FILES[file];
+    }
+
+    /** The squares strictly between two squares, if they are on one line; none if not. */
+    public static long between(int rank1, int file1, int rank2, int file2)
+    {
+        return BETWEEN[(rank1 << 3) + file1][(rank2 << 3) + file2];
+    }
+
+    /** The whole line through two squares, edge to edge, if they are on one; none if not. */
+    public static long line(int rank1, int file1, int rank2, int file2)
+    {
+        return LINE[(rank1 << 3) + file1][(rank2 << 3) + file2];
+    }
+
+    /**
+     * The squares a piece attacks: those it could capture on, whatever
+     * stands there, and whether or not it is pinned. A sliding piece's
+     * attacks stop at the first piece in each direction, that square
+     * included.
+     * @param occupied The squares of all the pieces on the board.
+     */
+    public static long attacks(Piece piece, long occupied)
+    {
+        int from = (piece.rank << 3) + piece.file;
+        switch((piece.symbol - '♔') % 6) {
+            case 0:
+                return KING_ATTACKS[from];
+            case 1:
+                return slide(from, occupied, 0, 1);
+            case 2:
+                return slide(from, occupied, 0, 2);
+            case 3:
+                return slide(from, occupied, 1, 2);
+            case 4:
+                return KNIGHT_ATTACKS[from];
+            default:
+                return PAWN_ATTACKS[piece.colour == 1 ? 0 : 1][from];
+        }
+    }
+
+    /**
+     * The squares reached along every {@code step}-th direction from
+     * {@code first}: every one for a Queen, every other one for a Rook or a
+     * Bishop.
+     */
+    private static long slide(int from, long occupied, int first, int step)
+    {
+        long attacks = 0;
+        for(int d = first; d < 8; d += step)
+        {
+            long ray = RAYS[d][from];
+            long blockers = ray & occupied;
+            if(blockers != 0) {
+                //the nearest blocker: the lowest square going up the board or along it, the highest going down.
+                boolean up = DIRECTIONS[d][0] > 0  ||  DIRECTIONS[d][0] == 0  &&  DIRECTIONS[d][1] > 0;
+                int blocker = up ? Long.numberOfTrailingZeros(blockers) : 63 - Long.numberOfLeadingZeros(blockers);
+                ray ^= RAYS[d][blocker];
+            }
+            attacks |= ray;
+        }
+        return attacks;
+    }
+}
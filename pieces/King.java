@@ -2,6 +2,7 @@ package pieces;
 
 import chess.Utils;
 import chess.Position;
+import chess.Weight;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -195,12 +196,28 @@ public class King extends Piece
     @Override
     public boolean hasMoved() { return HAS_MOVED; }
 
+    /**
+     * The penalty for the enemy pieces bearing down on the King: for each
+     * attack on its square or those around it, once at least two enemy
+     * pieces take part.
+     */
     @Override
     public float developmentPoints
         (Position pos, ArrayList<Pawn> friendlyPawns, ArrayList<Pawn> enemyPawns,
          ArrayList<Piece> friendlyPieces, ArrayList<Piece> enemyPieces)
     {
-        return 0; //To change body of generated methods, choose Tools | Templates.
+        long zone = pos.attacks(this) | Bitboards.square(rank, file);
+        int attackers = 0, attacks = 0;
+        for(Piece enemy : enemyPieces) {
+            if(enemy instanceof King)
+                continue;
+            long hits = pos.attacks(enemy) & zone;
+            if(hits != 0) {
+                attackers++;
+                attacks += Long.bitCount(hits);
+            }
+        }
+        return attackers < 2 ? 0 : -attacks * Weight.KING_ZONE_ATTACK.value();
     }
 
 }
@@ -1,7 +1,9 @@
 package pieces;
 
-import chess.Utils;
+import chess.PawnStructure;
 import chess.Position;
+import chess.Utils;
+import chess.Weight;
 import java.util.ArrayList;
 
 public class Knight extends Piece
@@ -60,128 +62,96 @@ public class Knight extends Piece
     public ArrayList<int[]> movableTo(Position pos)
     {
         King king = pos.king;
-        ArrayList<int[]> legalMoves = new ArrayList<>();
         
-        if(pinned(pos) != null)
-            return legalMoves;
+        if(pinned(pos) != null  ||  pos.CHECKERS.size() > 1)
+            return new ArrayList<>();
         
+        long targets = pos.attacks(this) & ~pos.occupied(colour);
         if(pos.CHECK)
         {
-            if(pos.CHECKERS.size() > 1)
-                return legalMoves;
-            
             Piece checker = pos.CHECKERS.get(0);
-            
+            long evasions = Bitboards.square(checker.rank, checker.file);
             if(checker.isFreelyMoving())
-            {
-                ArrayList<int[]> blocks = Utils.squaresBetween(king.rank, king.file, checker.rank, checker.file);
-                for(int[] square : blocks)
-                    if(this.isEyeing(pos, square[0], square[1]))
-                        legalMoves.add(square);
-            }
-            if(this.isEyeing(pos, checker.rank, checker.file))
-                legalMoves.add(new int[]{checker.rank, checker.file});
-            
-            return legalMoves;
+                evasions |= Bitboards.between(king.rank, king.file, checker.rank, checker.file);
+            targets &= evasions;
         }
         
-        for(int[] step : STEPS)
-        {
-            int[] move = {rank + step[0], file + step[1]};
-            if(Utils.exists(move[0], move[1]))
-            {
-                Piece moveSuspect = pos.board[move[0]][move[1]];
-                if((moveSuspect == null)  ||  (moveSuspect.colour != colour))
-                    legalMoves.add(move);
-            }
-        }
-        
-        return legalMoves;
+        return Bitboards.squares(targets);
     }
     
-    boolean isPawnported(ArrayList<Pawn> friendlyPawns)
+    /**
+     * Whether a Pawn of its own defends this Knight.
+     * @param friendlyPawns The squares of the friendly Pawns, as in {@link Bitboards}.
+     */
+    boolean isPawnported(long friendlyPawns)
     {
-        for(Pawn pawn : friendlyPawns) {
-            if(pawn.relativeRank() == this.relativeRank() - 1  &&  (pawn.file == file - 1  ||  pawn.file == file + 1)) {
-                return true;
-            }
-        }
-        return false;
+        int behind = rank - colour;
+        return behind >= 0  &&  behind < 8
+            &&  (friendlyPawns & Bitboards.RANKS[behind] & Bitboards.ADJACENT_FILES[file]) != 0;
     }
-    int outpostStatus(ArrayList<Pawn> enemyPawns)
+    /**
+     * @param enemyPawns The squares of the enemy Pawns, as in {@link Bitboards}.
+     * @return 0 if an enemy Pawn could still drive this Knight away, 2 if not
+     *         and an enemy Pawn in front of it blocks its file, 1 otherwise.
+     */
+    int outpostStatus(long enemyPawns)
     {
-        int laGuardia = 1;
-        for(Pawn pawn : enemyPawns) {
-            if(pawn.file == file + 1  ||  pawn.file == file - 1) {
-                if(colour * pawn.rank > colour * rank) {
-                    return 0;
-                }
-            }
-            if(pawn.file == file  &&  colour * pawn.rank > colour * rank) {
-                laGuardia = 2;
-            }
-        }
-        return laGuardia;
+        if((enemyPawns & Bitboards.attackSpan(colour, rank, file)) != 0)
+            return 0;
+        return (enemyPawns & Bitboards.frontSpan(colour, rank, file)) != 0 ? 2 : 1;
     }
     
+    /**
+     * The outpost bonus and the Knight's mobility, on top of the
+     * piece-square score.
+     */
     @Override
     public float developmentPoints(Position pos, ArrayList<Pawn> friendlyPawns, ArrayList<Pawn> enemyPawns,
                                     ArrayList<Piece> friendlyPieces, ArrayList<Piece> enemyPieces)
     {
-        int outpostStatus = outpostStatus(enemyPawns);
-        boolean isPawnported = isPawnported(friendlyPawns);
+        return outpostPoints(pos) + activity(pos, Weight.KNIGHT_MOBILITY);
+    }
+    
+    /**
+     * The bonus for standing on an outpost: more the further up the board,
+     * the more the square is safe from enemy Pawns and if a Pawn of its own
+     * defends it.
+     */
+    private float outpostPoints(Position pos)
+    {
+        PawnStructure pawns = pos.pawnStructure();
+        int outpostStatus = outpostStatus(pawns.pawns(-colour));
         switch (relativeRank()) {
-            case 0:
-                return 0f;
-            case 1:
-                return 0.1f;
-            case 2:
-                if(file > 0  &&  file < 7) {
-                    return 0.2f;
-                }
-                else {
-                    return 0.13f;
-                }
             case 3:
             case 4:
                 if(outpostStatus > 0) {
-                    if(file > 0  &&  file < 7) {
-                        return 0.3f;
-                    }
-                    else {
-                        return 0.18f;
-                    }
-                }
-                else if(file > 0  &&  file < 7) {
-                    return 0.22f;
-                }
-                else {
-                    return 0.15f;
+                    return file > 0  &&  file < 7 ? Weight.KNIGHT_OUTPOST.value() : Weight.KNIGHT_OUTPOST_EDGE.value();
                 }
+                return 0f;
             case 5:
             case 6:
-                if(isPawnported) {
+                if(isPawnported(pawns.pawns(colour))) {
                     if(outpostStatus > 1) {
-                        return 1f;
+                        return Weight.KNIGHT_ADVANCED_SUPPORTED_BLOCKED.value();
                     }
                     else if(outpostStatus > 0){
-                        return 0.8f;
+                        return Weight.KNIGHT_ADVANCED_SUPPORTED_SAFE.value();
                     }
                     else {
-                        return 0.5f;
+                        return Weight.KNIGHT_ADVANCED_SUPPORTED.value();
                     }
                 }
                 else if(outpostStatus > 1) {
-                    return 0.75f;
+                    return Weight.KNIGHT_ADVANCED_BLOCKED.value();
                 }
                 else if(outpostStatus > 0) {
-                    return 0.55f;
+                    return Weight.KNIGHT_ADVANCED_SAFE.value();
                 }
                 else {
-                    return 0.3f;
+                    return 0f;
                 }
             default:
-                return 0.3f;
+                return 0f;
         }
     }
     
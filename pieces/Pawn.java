@@ -94,7 +94,7 @@ public class Pawn extends Piece
                     if(file == square[1])
                     {
                         if(HIGH_RANK == square[0])
-                            legalMoves.add(square);
+                            addMoves(legalMoves, square[0], square[1]);
                         else if(relativeRank() == 1
                                 &&  HIGH_RANK + colour == square[0]
                                 &&  pos.board[HIGH_RANK][file] == null)
@@ -105,7 +105,7 @@ public class Pawn extends Piece
             }
             
             if(this.isEyeing(pos, checker.rank, checker.file))
-                legalMoves.add(new int[]{checker.rank, checker.file});
+                addMoves(legalMoves, checker.rank, checker.file);
             
             else if(checker == pos.doubleMover  &&  checker.rank == rank)
                 if(checker.file == RIGHT_FILE  ||  checker.file == LEFT_FILE)
@@ -128,13 +128,14 @@ public class Pawn extends Piece
         }
         
         //enPassant
-        if(pos.doubleMover != null  &&  pos.doubleMover.rank == this.rank)
+        if(pos.doubleMover != null  &&  pos.doubleMover.rank == this.rank
+                &&  !enPassantUncoversKing(pos))
         {
             if(pos.doubleMover.file == LEFT_FILE)
                 if(pinned == null  ||  pinned[0] + pinned[1] == 0)
                     legalMoves.add(new int[]{HIGH_RANK, LEFT_FILE});
             if(pos.doubleMover.file == RIGHT_FILE)
-                if(pinned == null  ||  pinned[0] - pinned[1] == 0);
+                if(pinned == null  ||  pinned[0] - pinned[1] == 0)
                     legalMoves.add(new int[]{HIGH_RANK, RIGHT_FILE});
         }
         
@@ -157,6 +158,27 @@ public class Pawn extends Piece
         return legalMoves;
     }
     
+    /**
+     * Whether taking en passant would leave the King open along the rank: the
+     * two Pawns leave it at once, which no pin of this Pawn alone shows.
+     */
+    private boolean enPassantUncoversKing(Position pos)
+    {
+        King king = pos.king;
+        if(king.rank != rank)
+            return false;
+        int fJump = king.file < file ? +1 : -1;
+        for(int f = king.file + fJump; f >= 0  &&  f < 8; f += fJump)
+        {
+            Piece piece = pos.board[rank][f];
+            if(piece == null  ||  piece == this  ||  piece == pos.doubleMover)
+                continue;
+            return piece.colour != colour  &&  piece.isFreelyMoving()
+                &&  piece.mightBeEyeing(king.rank, king.file);
+        }
+        return false;
+    }
+    
     @Override
     public Piece move(Move move)
     {
@@ -190,106 +212,26 @@ public class Pawn extends Piece
         return getPiece(newSymbol, rank, file, true);
     }
 
-    public boolean isDoubled(ArrayList<Pawn> friendlyPawns)
+    /**
+     * @param friendlyPawns The squares of this Pawn's side's Pawns, as in
+     *                      {@link Bitboards}.
+     */
+    public boolean isDoubled(long friendlyPawns)
     {
-        for(Pawn pawn : friendlyPawns)
-            if(pawn.file == file  &&  pawn != this)
-                return true;
-        return false;
+        return (friendlyPawns & Bitboards.FILES[file] & ~Bitboards.square(rank, file)) != 0;
     }
     
-    public boolean isIsolated(ArrayList<Pawn> friendlyPawns)
+    public boolean isIsolated(long friendlyPawns)
     {
-        for(Pawn pawn : friendlyPawns)
-            if(Math.abs(pawn.file - file) == 1)
-                return false;
-        return true;
+        return (friendlyPawns & Bitboards.ADJACENT_FILES[file]) == 0;
     }
     
-    public boolean isBackward(ArrayList<Pawn> friendlyPawns)
+    /**
+     * Whether no Pawn on a neighbouring file is level with or behind this one.
+     */
+    public boolean isBackward(long friendlyPawns)
     {
-        for(Pawn pawn : friendlyPawns)
-            if(Math.abs(pawn.file - file) == 1)
-                if(pawn.relativeRank() <= this.relativeRank())
-                    return false;
-        return true;
-    }
-    
-    public float developmentPoints()
-    {
-        switch(relativeRank())
-        {
-            case 1:
-                return 0;
-            case 2:
-                switch(file)
-                {
-                    case 0:
-                    case 7:
-                        return 0.07f;
-                    case 3:
-                    case 4:
-                        return 0.14f;
-                    default:
-                        return 0.1f;
-                }
-            case 3:
-                switch(file)
-                {
-                    case 0:
-                    case 7:
-                        return 0.07f;
-                    case 3:
-                    case 4:
-                        return 0.2f;
-                    case 2:
-                    case 5:
-                        return 0.15f;
-                    default:
-                        return 0.1f;
-                }
-            case 4:
-                switch(file)
-                {
-                    case 0:
-                    case 7:
-                        return 0.12f;
-                    case 1:
-                    case 6:
-                        return 0.15f;
-                    case 2:
-                    case 5:
-                        return 0.18f;
-                    default:
-                        return 0.24f;
-                }
-            case 5:
-                switch(file)
-                {
-                    case 0:
-                    case 7:
-                        return 0.18f;
-                    case 1:
-                    case 6:
-                        return 0.18f;
-                    default:
-                        return 0.21f;
-                }
-            case 6:
-                switch(file)
-                {
-                    case 0:
-                    case 7:
-                        return 0.6f;
-                    case 1:
-                    case 6:
-                        return 0.45f;
-                    default:
-                        return 0.3f;
-                }
-        }
-        System.out.println("PAWN ON EDGE RANK!");
-        return 9;
+        return (friendlyPawns & Bitboards.ADJACENT_FILES[file] & ~Bitboards.ahead(colour, rank)) == 0;
     }
     
     @Override
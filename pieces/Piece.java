@@ -3,6 +3,7 @@ package pieces;
 import chess.Move;
 import chess.Utils;
 import chess.Position;
+import chess.Weight;
 import java.util.ArrayList;
 
 public abstract class Piece
@@ -196,57 +197,32 @@ public abstract class Piece
     
     public ArrayList<int[]> movableTo(Position pos)
     {
-        ArrayList<int[]> legalMoves = new ArrayList<>();
         King king = pos.king;
         
         if(pos.CHECKERS.size() > 1)
-            return legalMoves;
+            return new ArrayList<>();
         
         int[] pinned = pinned(pos);
+        //the squares the piece attacks are worked out once for the position,
+        //and shared with the evaluation.
+        long targets = pos.attacks(this) & ~pos.occupied(colour);
         
         if(pos.CHECK)
         {
             if(pinned != null)
-                return legalMoves;
+                return new ArrayList<>();
             
             Piece checker = pos.CHECKERS.get(0);
+            long evasions = Bitboards.square(checker.rank, checker.file);
             if(checker.isFreelyMoving())
-            {
-                ArrayList<int[]> blocks
-                        = Utils.squaresBetween(king.rank, king.file,
-                                            checker.rank, checker.file);
-                for(int[] square : blocks)
-                    if(this.isEyeing(pos, square[0], square[1]))
-                        legalMoves.add(square);
-            }
-            
-            if(this.isEyeing(pos, checker.rank, checker.file))
-                legalMoves.add(new int[]{checker.rank, checker.file});
-            
-            return legalMoves;
+                evasions |= Bitboards.between(king.rank, king.file, checker.rank, checker.file);
+            targets &= evasions;
         }
+        //a pinned piece can only move along the pin.
+        else if(pinned != null)
+            targets &= Bitboards.line(king.rank, king.file, rank, file);
         
-        for(int[] step : steps())
-        {
-            if(pinned != null  &&  !pinned.equals(step)
-                    &&  (step[0] != -pinned[0]  ||  step[1] != -pinned[1]))
-                continue;
-            int[] move = {rank + step[0], file + step[1]};
-            while(Utils.exists(move[0], move[1]))
-            {
-                if(pos.board[move[0]][move[1]] == null)
-                    legalMoves.add(move);
-                else
-                {
-                    if(pos.board[move[0]][move[1]].colour != this.colour)
-                        legalMoves.add(move);
-                    break;
-                }
-                move = new int[]{move[0] + step[0], move[1] + step[1]};
-            }
-        }
-        
-        return legalMoves;
+        return Bitboards.squares(targets);
     }
     
     public int[] pinned(Position pos)
@@ -268,7 +244,7 @@ public abstract class Piece
             return null;
         
         Piece enemy = pos.nearestPieceFrom(this.rank, this.file, -rJump, -fJump);
-        if(enemy != null  &&  enemy.colour != colour
+        if(enemy != null  &&  enemy.colour != colour  &&  enemy.isFreelyMoving()
                         &&  enemy.mightBeEyeing(rank, file))
             return new int[]{rJump, fJump};
         return null;
@@ -304,6 +280,21 @@ public abstract class Piece
     
     public int relativeRank() { return colour == 1 ? rank : 7 - rank; }
     
+    /**
+     * The evaluation terms every piece but the King and Pawns has, from the
+     * squares it attacks: its mobility, and a penalty if it hangs.
+     * @param mobility The weight of each square it can safely go to.
+     */
+    float activity(Position pos, Weight mobility)
+    {
+        long safe = ~pos.occupied(colour) & ~pos.pawnAttacks(-colour);
+        float points = Long.bitCount(pos.attacks(this) & safe) * mobility.value();
+        long square = Bitboards.square(rank, file);
+        if((pos.attackedBy(-colour) & square) != 0  &&  (pos.attackedBy(colour) & square) == 0)
+            points -= Weight.HANGING_PIECE.value();
+        return points;
+    }
+    
     
     @Override
     public String toString()
@@ -1,6 +1,7 @@
 package pieces;
 
 import chess.Position;
+import chess.Weight;
 import java.util.ArrayList;
 
 public class Queen extends Piece
@@ -18,7 +19,7 @@ public class Queen extends Piece
         (Position pos, ArrayList<Pawn> friendlyPawns, ArrayList<Pawn> enemyPawns,
          ArrayList<Piece> friendlyPieces, ArrayList<Piece> enemyPieces)
     {
-        return 0;
+        return activity(pos, Weight.QUEEN_MOBILITY);
     }
     
     @Override
@@ -1,6 +1,8 @@
 package pieces;
 
+import chess.PawnStructure;
 import chess.Position;
+import chess.Weight;
 import java.util.ArrayList;
 
 public class Rook extends Piece
@@ -57,40 +59,41 @@ public class Rook extends Piece
     public float developmentPoints
         (Position pos, ArrayList<Pawn> friendlyPawns, ArrayList<Pawn> enemyPawns,
          ArrayList<Piece> friendlyPieces, ArrayList<Piece> enemyPieces)
+    {
+        return linePoints(pos, friendlyPieces) + activity(pos, Weight.ROOK_MOBILITY);
+    }
+    
+    /**
+     * The bonus for the Rook's rank and file: for the sixth and seventh
+     * ranks, for open files and for the other heavy pieces along them.
+     */
+    private float linePoints(Position pos, ArrayList<Piece> friendlyPieces)
     {
         float rookBonus = 0;
         if(relativeRank() == 6  ||  relativeRank() == 5) {
             for(Piece piece : friendlyPieces) {
                 if(piece instanceof Rook  ||  piece instanceof Queen) {
                     if(piece.rank == rank)
-                        rookBonus += 0.6;
+                        rookBonus += Weight.ROOK_SEVENTH_RANK_PARTNER.value();
                     else if(piece.file == file  &&  piece.isEyeing(pos, rank, file))
-                        rookBonus += 0.4;
+                        rookBonus += Weight.ROOK_SEVENTH_FILE_PARTNER.value();
                 }
             }
-            int c = 0;
-            for(Pawn pawn : enemyPawns) {
-                if(pawn.rank == this.rank)
-                    c++;
-            }
+            PawnStructure pawns = pos.pawnStructure();
+            int c = pawns.pawnsOnRank(-colour, rank);
             if(c > 3)
-                return rookBonus + 1.0f;
+                return rookBonus + Weight.ROOK_SEVENTH_FOUR_PAWNS.value();
             else if(c > 2)
-                return rookBonus + 0.8f;
+                return rookBonus + Weight.ROOK_SEVENTH_THREE_PAWNS.value();
             else if(c > 1)
-                return rookBonus + 0.6f;
+                return rookBonus + Weight.ROOK_SEVENTH_TWO_PAWNS.value();
             else if(c > 0)
-                return rookBonus + 0.3f;
+                return rookBonus + Weight.ROOK_SEVENTH_ONE_PAWN.value();
             else {
-                for(Pawn pawn : enemyPawns) {
-                    if(pawn.file == file)
-                        return 0.2f;
-                }
-                for(Pawn pawn : friendlyPawns) {
-                    if(pawn.file == file) {
-                        return 0f;
-                    }
-                }
+                if(!pawns.isOpen(-colour, file))
+                    return Weight.ROOK_SEVENTH_ENEMY_FILE.value();
+                if(!pawns.isOpen(colour, file))
+                    return 0f;
                 return rookBonus;
             }
         }
@@ -99,41 +102,16 @@ public class Rook extends Piece
         {
             if(piece != this  &&  (piece instanceof Queen  ||  piece instanceof Rook)
                &&  piece.file == this.file  &&  piece.isEyeing(pos, rank, file))
-                rookBonus += 0.25;
-        }
-        
-        int pawnRank = 0;
-        for(Pawn pawn : friendlyPawns)
-        {
-            if(pawn.file == this.file  &&  pawn.relativeRank() < pawnRank) {
-                pawnRank = pawn.relativeRank();
-            }
-        }
-        if(pawnRank == 6) {
-            return 1.5f;
-        }
-        if(pawnRank == 5) {
-            return 1.0f;
-        }
-        if(pawnRank > 2) {
-            return 0.25f;
-        }
-        if(pawnRank > 0) {
-            return 0f;
-        }
-        
-        int c = 0;
-        for(Pawn pawn : enemyPawns)
-        {
-            if(pawn.file == this.file)
-                c++;
+                rookBonus += Weight.ROOK_BATTERY.value();
         }
-        if(c > 1)
-            return rookBonus + 0.4f;
-        if(c > 0)
-            return rookBonus + 0.15f;
         
-        return rookBonus + 0.6f;
+        //open to the Rook, or half-open with one or more enemy Pawns.
+        PawnStructure pawns = pos.pawnStructure();
+        if(pawns.isOpen(-colour, file))
+            return rookBonus + Weight.ROOK_FILE_NO_ENEMY_PAWN.value();
+        if(pawns.pawnsOnFile(-colour, file) > 1)
+            return rookBonus + Weight.ROOK_FILE_ENEMY_PAWNS.value();
+        return rookBonus + Weight.ROOK_FILE_ENEMY_PAWN.value();
     }
     
 }
@@ -0,0 +1,72 @@
+package chess;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Nnue}'s arithmetic with the incubating Vector API, as wide as the
+ * CPU allows. The dense layers multiply in 16-bit lanes and widen the
+ * products to 32 bits only to sum them.
+ * <p>
+ * This file is kept out of the main source tree so that the rest compiles
+ * without the incubating module. It is compiled on its own, into the same
+ * output, after the rest:
+ * {@code javac --add-modules jdk.incubator.vector -cp out -d out vector/chess/*.java}.
+ * </p>
+ * It is only loaded, by name, when the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}.
+ */
+final class NnueVectorKernels implements Nnue.Kernels
+{
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    /**
+     * Shorts in as many lanes as {@link #INTS}, so that the products widen
+     * to 32 bits in one piece.
+     */
+    private static final VectorSpecies<Short> PRODUCTS =
+            VectorSpecies.of(short.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+
+    @Override
+    public void add(short[] accumulator, short[] weights, int offset)
+    {
+        int i = 0;
+        for(int bound = SHORTS.loopBound(accumulator.length); i < bound; i += SHORTS.length())
+            ShortVector.fromArray(SHORTS, accumulator, i)
+                    .add(ShortVector.fromArray(SHORTS, weights, offset + i))
+                    .intoArray(accumulator, i);
+        for(; i < accumulator.length; i++)
+            accumulator[i] += weights[offset + i];
+    }
+
+    @Override
+    public void subtract(short[] accumulator, short[] weights, int offset)
+    {
+        int i = 0;
+        for(int bound = SHORTS.loopBound(accumulator.length); i < bound; i += SHORTS.length())
+            ShortVector.fromArray(SHORTS, accumulator, i)
+                    .sub(ShortVector.fromArray(SHORTS, weights, offset + i))
+                    .intoArray(accumulator, i);
+        for(; i < accumulator.length; i++)
+            accumulator[i] -= weights[offset + i];
+    }
+
+    @Override
+    public int dot(short[] input, short[] weights, int offset, int length)
+    {
+        IntVector sums = IntVector.zero(INTS);
+        int i = 0;
+        for(int bound = PRODUCTS.loopBound(length); i < bound; i += PRODUCTS.length()) {
+            ShortVector products = ShortVector.fromArray(PRODUCTS, input, i)
+                    .mul(ShortVector.fromArray(PRODUCTS, weights, offset + i));
+            sums = sums.add(products.convertShape(VectorOperators.S2I, INTS, 0));
+        }
+        int sum = sums.reduceLanes(VectorOperators.ADD);
+        for(; i < length; i++)
+            sum += input[i] * weights[offset + i];
+        return sum;
+    }
+}